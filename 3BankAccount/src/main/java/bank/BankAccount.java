@@ -1,49 +1,160 @@
 package bank;
 
-import java.util.ArrayList;
+import java.math.RoundingMode;
 import java.util.List;
 
+// Money is held as long cents (see Money); the double methods convert at the edge.
+// Every method that touches balance or transactions holds this account's monitor, so
+// concurrent deposits and withdrawals cannot lose updates. Ledger.transfer holds two of them.
 public class BankAccount {
 
-    private String ownerName;
-    private double balance;
-    private List<Transaction> transactions;
+    private final String ownerName;
+    private long balanceCents;
+    private final TransactionJournal journal = new TransactionJournal();
+    // postings ever made, including those before a snapshot; the journal may hold fewer
+    private long version;
 
     public BankAccount(String ownerName, double initialBalance) {
+        this(Money.cents(initialBalance), ownerName);
+    }
+
+    // parameter order differs from the public constructor, which int literals would otherwise
+    // resolve to as cents
+    private BankAccount(long initialCents, String ownerName) {
+        this(initialCents, ownerName, System.currentTimeMillis(), 1);
+    }
+
+    private BankAccount(long initialCents, String ownerName, long epochMillis, long version) {
         this.ownerName = ownerName;
-        this.balance = initialBalance;
-        this.transactions = new ArrayList<>();
-        transactions.add(new Transaction("Initial Balance", initialBalance));
+        this.balanceCents = initialCents;
+        journal.append(epochMillis, TransactionJournal.INITIAL, initialCents);
+        this.version = version;
+    }
+
+    public static BankAccount ofCents(String ownerName, long initialCents) {
+        return new BankAccount(initialCents, ownerName);
+    }
+
+    // An account rebuilt by recovery. One loaded from a snapshot restarts its history with the
+    // snapshot balance as the initial entry, and its version carries on from the snapshot.
+    static BankAccount restore(String ownerName, long balanceCents, long version, long epochMillis) {
+        return new BankAccount(balanceCents, ownerName, epochMillis, version);
+    }
+
+    public String getOwnerName() {
+        return ownerName;
     }
 
     public double getBalance() {
-        return balance;
+        return Money.toDouble(getBalanceCents());
     }
 
-    public List<Transaction> getTransactions() {
-        return transactions;
+    public synchronized long getBalanceCents() {
+        return balanceCents;
+    }
+
+    // The history up to now, as a read-only view over the journal. Each get() builds its
+    // Transaction on the spot; later postings do not show up in a view already handed out.
+    public synchronized List<Transaction> getTransactions() {
+        return journal.view(this, journal.size());
     }
 
     public void deposit(double amount) {
-        if (amount <= 0) throw new IllegalArgumentException("Amount must be greater than zero");
-        balance += amount;
-        transactions.add(new Transaction("Deposit", amount));
+        depositCents(Money.cents(amount));
     }
 
     public void withdraw(double amount) {
-        if (amount <= 0) throw new IllegalArgumentException("Amount must be greater than zero");
+        withdrawCents(Money.cents(amount));
+    }
+
+    public void depositCents(long cents) {
+        credit(cents, TransactionJournal.DEPOSIT);
+    }
+
+    public void withdrawCents(long cents) {
+        debit(cents, TransactionJournal.WITHDRAWAL);
+    }
+
+    synchronized void credit(long cents, byte type) {
+        checkAmount(cents);
+        balanceCents = Math.addExact(balanceCents, cents);
+        record(type, cents);
+    }
+
+    synchronized void debit(long cents, byte type) {
+        checkAmount(cents);
 
-        if (amount > balance) throw new IllegalArgumentException("Insufficient Funds");
+        if (cents > balanceCents) throw new IllegalArgumentException("Insufficient Funds");
 
-        balance -= amount;
-        transactions.add(new Transaction("Withdrawal", amount));
+        balanceCents -= cents;
+        record(type, cents);
+    }
+
+    // Both checks happen before either account changes, so a failed transfer leaves no trace.
+    // The caller holds both monitors.
+    static void transfer(BankAccount from, BankAccount to, long cents) {
+        checkAmount(cents);
+        if (cents > from.balanceCents) throw new IllegalArgumentException("Insufficient Funds");
+        Math.addExact(to.balanceCents, cents);
+        from.debit(cents, TransactionJournal.TRANSFER_OUT);
+        to.credit(cents, TransactionJournal.TRANSFER_IN);
     }
 
     public void applyInterest(double ratePercent) {
         if (ratePercent < 0) throw new IllegalArgumentException("Rate cannot be negative");
+        applyInterest(Money.ratePpb(ratePercent), Money.DEFAULT_ROUNDING);
+    }
+
+    // ratePpb in parts per billion of the balance; the interest is rounded to a cent by mode.
+    public void applyInterest(long ratePpb, RoundingMode mode) {
+        applyInterest(ratePpb, mode, System.currentTimeMillis());
+    }
+
+    // Stamps the entry with epochMillis, so every posting of a batch run shares one date.
+    // Returns the interest posted.
+    synchronized long applyInterest(long ratePpb, RoundingMode mode, long epochMillis) {
+        long interest = Money.interest(balanceCents, ratePpb, mode);
+        balanceCents = Math.addExact(balanceCents, interest);
+        journal.append(epochMillis, TransactionJournal.INTEREST, interest);
+        version++;
+        return interest;
+    }
+
+    // Re-applies a logged posting during recovery, unless the account already has it (a fuzzy
+    // snapshot may have caught it). The log only holds postings that succeeded, so there is
+    // nothing to check.
+    synchronized void replay(byte type, long cents, long epochMillis, long version) {
+        if (version <= this.version) return;
+        balanceCents = TransactionJournal.isDebit(type)
+                ? Math.subtractExact(balanceCents, cents)
+                : Math.addExact(balanceCents, cents);
+        journal.append(epochMillis, type, cents);
+        this.version = version;
+    }
+
+    // The accessors below are for logging the posting just made; the caller holds the monitor.
+    long version() {
+        return version;
+    }
+
+    byte lastType() {
+        return journal.type(journal.size() - 1);
+    }
+
+    long lastCents() {
+        return journal.cents(journal.size() - 1);
+    }
+
+    long lastEpochMillis() {
+        return journal.epochMillis(journal.size() - 1);
+    }
+
+    private static void checkAmount(long cents) {
+        if (cents <= 0) throw new IllegalArgumentException("Amount must be greater than zero");
+    }
 
-        double interest = balance * (ratePercent / 100);
-        balance += interest;
-        transactions.add(new Transaction("Interest Added", interest));
+    private void record(byte type, long cents) {
+        journal.append(System.currentTimeMillis(), type, cents);
+        version++;
     }
 }
@@ -0,0 +1,143 @@
+package bank;
+
+import java.math.RoundingMode;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+// One interest posting to every account of a Ledger, split by id range across a fork/join
+// pool. Each account is locked only for its own posting, so a deposit never waits for more
+// than one posting; accounts opened after the run was created are left out. Every entry
+// carries the run's date. On a persistent ledger each slice waits for the log once, not once
+// per account, so the postings share fsyncs.
+public final class InterestRun {
+    private static final int SLICE = 4096;
+    private static final int REPORTS = 100;
+
+    private final Ledger ledger;
+    private final long ratePpb;
+    private final RoundingMode mode;
+    private final long accounts;
+    private final long epochMillis = System.currentTimeMillis();
+    private final LongAdder posted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder interestCents = new LongAdder();
+    private final AtomicLong nextReport = new AtomicLong();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private LongConsumer progress = done -> { };
+
+    public InterestRun(Ledger ledger, double ratePercent) {
+        this(ledger, checkRate(ratePercent), Money.DEFAULT_ROUNDING);
+    }
+
+    public InterestRun(Ledger ledger, long ratePpb, RoundingMode mode) {
+        if (ratePpb < 0) throw new IllegalArgumentException("Rate cannot be negative");
+        this.ledger = ledger;
+        this.ratePpb = ratePpb;
+        this.mode = mode;
+        this.accounts = ledger.size();
+    }
+
+    // Called with the number of accounts done, about every 1% and once at the end, from
+    // whichever pool thread gets there; it should return quickly.
+    public InterestRun onProgress(LongConsumer listener) {
+        this.progress = listener;
+        return this;
+    }
+
+    public void run() {
+        run(ForkJoinPool.commonPool());
+    }
+
+    public void run(ForkJoinPool pool) {
+        if (!started.compareAndSet(false, true)) throw new IllegalStateException("Interest run already started");
+        pool.invoke(new Slice(0, accounts));
+        progress.accept(done());
+    }
+
+    // Ids the run covers, including any whose open() had not finished; those are skipped.
+    public long accounts() {
+        return accounts;
+    }
+
+    // Accounts handled so far, posted or failed; safe to poll from any thread.
+    public long done() {
+        return posted.sum() + failed.sum();
+    }
+
+    public long posted() {
+        return posted.sum();
+    }
+
+    // Accounts whose interest would have overflowed the balance; they are left as they were.
+    public long failed() {
+        return failed.sum();
+    }
+
+    public long totalInterestCents() {
+        return interestCents.sum();
+    }
+
+    private void post(long from, long to) {
+        long interest = 0;
+        long lsn = 0;
+        int ok = 0;
+        int overflowed = 0;
+        for (long id = from; id < to; id++) {
+            BankAccount account = ledger.find(id);
+            if (account == null) continue;
+            synchronized (account) {
+                try {
+                    interest += account.applyInterest(ratePpb, mode, epochMillis);
+                    lsn = ledger.logPosting(id, account);
+                    ok++;
+                } catch (ArithmeticException e) {
+                    overflowed++;
+                }
+            }
+        }
+        ledger.awaitDurable(lsn);
+        interestCents.add(interest);
+        posted.add(ok);
+        failed.add(overflowed);
+        report();
+    }
+
+    private void report() {
+        long done = done();
+        long due = nextReport.get();
+        if (done >= due && nextReport.compareAndSet(due, done + Math.max(1, accounts / REPORTS))) {
+            progress.accept(done);
+        }
+    }
+
+    private static long checkRate(double ratePercent) {
+        if (ratePercent < 0) throw new IllegalArgumentException("Rate cannot be negative");
+        return Money.ratePpb(ratePercent);
+    }
+
+    private final class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long from;
+        private final long to;
+
+        Slice(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SLICE) {
+                post(from, to);
+                return;
+            }
+            long mid = (from + to) >>> 1;
+            invokeAll(new Slice(from, mid), new Slice(mid, to));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package bank;
+
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+// Any number of accounts under dense ids, stored in fixed-size chunks so that growing to
+// millions of accounts never copies or rehashes what is already there. Each account is
+// guarded by its own monitor; a transfer locks both accounts in id order, so two transfers
+// in opposite directions can never wait on each other.
+//
+// A ledger opened on a directory is durable: every open, posting and transfer made through it
+// is in the write-ahead log before the call returns, and the constructor recovers whatever the
+// directory holds (see LedgerStore). Postings made on a BankAccount directly are not logged.
+public class Ledger implements AutoCloseable {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 15;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<BankAccount>> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicLong nextId = new AtomicLong();
+    private final LedgerStore store;  // null when in memory only
+
+    public Ledger() {
+        this.store = null;
+    }
+
+    public Ledger(Path directory) throws IOException {
+        this(directory, LedgerStore.DEFAULT_SYNC_BATCH, LedgerStore.DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    // syncBatch: records the log waits for before an fsync (it never waits more than a
+    // millisecond). snapshotEvery: records logged between automatic snapshots.
+    public Ledger(Path directory, int syncBatch, long snapshotEvery) throws IOException {
+        this.store = LedgerStore.open(directory, this, syncBatch, snapshotEvery);
+    }
+
+    public long open(String ownerName, double initialBalance) {
+        return openCents(ownerName, Money.cents(initialBalance));
+    }
+
+    public long openCents(String ownerName, long initialCents) {
+        long id = nextId.getAndIncrement();
+        if (id >= (long) MAX_CHUNKS * CHUNK_SIZE) throw new IllegalStateException("Ledger is full");
+        BankAccount account = BankAccount.ofCents(ownerName, initialCents);
+        if (store == null) {
+            chunk(id).set((int) (id & (CHUNK_SIZE - 1)), account);
+            return id;
+        }
+        // published before it is logged, but nobody can post to it until the monitor is free
+        long lsn;
+        synchronized (account) {
+            chunk(id).set((int) (id & (CHUNK_SIZE - 1)), account);
+            lsn = store.logOpen(id, account);
+        }
+        store.awaitDurable(lsn);
+        return id;
+    }
+
+    public BankAccount account(long id) {
+        BankAccount account = find(id);
+        if (account == null) throw new IllegalArgumentException("No such account: " + id);
+        return account;
+    }
+
+    BankAccount find(long id) {
+        if (id < 0 || id >= nextId.get()) return null;
+        AtomicReferenceArray<BankAccount> chunk = chunks.get((int) (id >>> CHUNK_BITS));
+        return chunk == null ? null : chunk.get((int) (id & (CHUNK_SIZE - 1)));
+    }
+
+    // Recovery only: puts an account back under the id it had.
+    void restore(long id, BankAccount account) {
+        if (id >= (long) MAX_CHUNKS * CHUNK_SIZE) throw new IllegalStateException("Ledger is full");
+        chunk(id).set((int) (id & (CHUNK_SIZE - 1)), account);
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    // Accounts opened so far, including any whose open() is still in progress.
+    public long size() {
+        return nextId.get();
+    }
+
+    public void deposit(long id, double amount) {
+        depositCents(id, Money.cents(amount));
+    }
+
+    public void withdraw(long id, double amount) {
+        withdrawCents(id, Money.cents(amount));
+    }
+
+    public void depositCents(long id, long cents) {
+        post(id, a -> a.depositCents(cents));
+    }
+
+    public void withdrawCents(long id, long cents) {
+        post(id, a -> a.withdrawCents(cents));
+    }
+
+    public void applyInterest(long id, double ratePercent) {
+        post(id, a -> a.applyInterest(ratePercent));
+    }
+
+    public void applyInterest(long id, long ratePpb, RoundingMode mode) {
+        post(id, a -> a.applyInterest(ratePpb, mode));
+    }
+
+    public void transfer(long fromId, long toId, double amount) {
+        transferCents(fromId, toId, Money.cents(amount));
+    }
+
+    // All or nothing: an invalid amount, insufficient funds or an overflowing target leaves
+    // both accounts untouched.
+    public void transferCents(long fromId, long toId, long cents) {
+        if (fromId == toId) throw new IllegalArgumentException("Cannot transfer to the same account");
+        BankAccount from = account(fromId);
+        BankAccount to = account(toId);
+        BankAccount first = fromId < toId ? from : to;
+        BankAccount second = first == from ? to : from;
+        long lsn;
+        synchronized (first) {
+            synchronized (second) {
+                BankAccount.transfer(from, to, cents);
+                if (store == null) return;
+                lsn = store.logTransfer(fromId, from, toId, to);
+            }
+        }
+        store.awaitDurable(lsn);
+    }
+
+    // In id order, skipping ids whose open() has not finished.
+    public void forEach(Consumer<BankAccount> action) {
+        forEachWithId((account, id) -> action.accept(account));
+    }
+
+    void forEachWithId(ObjLongConsumer<BankAccount> action) {
+        long n = nextId.get();
+        for (long id = 0; id < n; id++) {
+            BankAccount account = find(id);
+            if (account != null) action.accept(account, id);
+        }
+    }
+
+    public double totalBalance() {
+        return Money.toDouble(totalBalanceCents());
+    }
+
+    // Sum over all accounts, each read under its own lock. Exact only while no transfer is
+    // running, since a transfer can land between two of the reads.
+    public long totalBalanceCents() {
+        long[] total = new long[1];
+        forEach(a -> total[0] = Math.addExact(total[0], a.getBalanceCents()));
+        return total[0];
+    }
+
+    // Writes a snapshot now, so that recovery only has to replay what comes after it.
+    public void snapshot() throws IOException {
+        if (store == null) throw new IllegalStateException("Ledger is not persistent");
+        store.snapshot();
+    }
+
+    // Syncs the log and stops logging; a persistent ledger cannot post after this.
+    @Override
+    public void close() throws IOException {
+        if (store != null) store.close();
+    }
+
+    // fsyncs the write-ahead log has made; 0 when in memory only.
+    public long fsyncs() {
+        return store == null ? 0 : store.fsyncs();
+    }
+
+    // Durable: the posting is logged under the account's monitor, in the same order as the
+    // account's other postings, and the call waits for the fsync outside it.
+    private void post(long id, Consumer<BankAccount> posting) {
+        BankAccount account = account(id);
+        if (store == null) {
+            posting.accept(account);
+            return;
+        }
+        long lsn;
+        synchronized (account) {
+            posting.accept(account);
+            lsn = logPosting(id, account);
+        }
+        awaitDurable(lsn);
+    }
+
+    // For callers that post to many accounts and wait for the log once at the end: logs the
+    // posting just made (under the account's monitor) and returns what to pass to awaitDurable.
+    long logPosting(long id, BankAccount account) {
+        return store == null ? 0 : store.logPosting(id, account);
+    }
+
+    void awaitDurable(long lsn) {
+        if (store != null) store.awaitDurable(lsn);
+    }
+
+    private AtomicReferenceArray<BankAccount> chunk(long id) {
+        int index = (int) (id >>> CHUNK_BITS);
+        AtomicReferenceArray<BankAccount> chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+}
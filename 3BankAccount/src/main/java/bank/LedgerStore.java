@@ -0,0 +1,268 @@
+package bank;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Keeps a Ledger durable in one directory: wal-<gen>.log holds every posting as it happens,
+// snapshot-<gen>.snap every balance as of the start of wal-<gen>.log. Recovery loads the newest
+// snapshot and replays the logs from its generation on.
+//
+// A snapshot first rotates the log, then reads the accounts one at a time without stopping the
+// ledger, so it may already contain some postings from the new log. Each account counts its
+// postings (BankAccount.version) and every record carries the count it produced, so replay
+// skips what the snapshot already has. Older files are only deleted once the new snapshot is
+// on disk; a crash halfway through a snapshot just leaves one more log to replay.
+final class LedgerStore implements AutoCloseable {
+    static final int DEFAULT_SYNC_BATCH = 1;
+    static final long DEFAULT_SNAPSHOT_EVERY = 1_000_000;
+
+    private static final byte OPEN = 1;
+    private static final byte POSTING = 2;
+    private static final byte TRANSFER = 3;
+    private static final int SNAPSHOT_MAGIC = 0x42534e50;  // "BSNP"
+    private static final Pattern FILE_NAME = Pattern.compile("(wal|snapshot)-(\\d+)\\.(log|snap)");
+
+    private final Path directory;
+    private final Ledger ledger;
+    private final long snapshotEvery;
+    private final AtomicLong sinceSnapshot = new AtomicLong();
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private final WriteAheadLog log;
+    private long generation;  // guarded by this
+    private boolean closed;   // guarded by this
+
+    private LedgerStore(Path directory, Ledger ledger, long snapshotEvery, long generation, WriteAheadLog log) {
+        this.directory = directory;
+        this.ledger = ledger;
+        this.snapshotEvery = snapshotEvery;
+        this.generation = generation;
+        this.log = log;
+    }
+
+    // Rebuilds ledger from directory, which must be empty or written by an earlier store.
+    static LedgerStore open(Path directory, Ledger ledger, int syncBatch, long snapshotEvery) throws IOException {
+        Files.createDirectories(directory);
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        long snapshot = -1;
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher m = FILE_NAME.matcher(file.getFileName().toString());
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.delete(file);  // a snapshot that never finished
+                } else if (m.matches() && m.group(1).equals("wal") && m.group(3).equals("log")) {
+                    logs.put(Long.parseLong(m.group(2)), file);
+                } else if (m.matches() && m.group(1).equals("snapshot") && m.group(3).equals("snap")) {
+                    snapshot = Math.max(snapshot, Long.parseLong(m.group(2)));
+                }
+            }
+        }
+        long generation = Math.max(snapshot, 0);
+        if (snapshot >= 0) loadSnapshot(snapshotFile(directory, snapshot), ledger);
+        for (Path file : logs.tailMap(generation).values()) {
+            WriteAheadLog.replay(file, record -> apply(record, ledger));
+        }
+        if (!logs.tailMap(generation).isEmpty()) generation = logs.lastKey();
+        WriteAheadLog log = new WriteAheadLog(logFile(directory, generation), syncBatch);
+        return new LedgerStore(directory, ledger, snapshotEvery, generation, log);
+    }
+
+    // Each log method runs under the monitor of every account it names, right after the
+    // posting, so that records for one account are in the order its postings happened.
+    long logOpen(long id, BankAccount account) {
+        byte[] owner = account.getOwnerName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(1 + 8 * 3 + 4 + owner.length)
+                .put(OPEN).putLong(account.lastEpochMillis()).putLong(id).putLong(account.lastCents())
+                .putInt(owner.length).put(owner);
+        return append(record);
+    }
+
+    long logPosting(long id, BankAccount account) {
+        ByteBuffer record = ByteBuffer.allocate(2 + 8 * 4)
+                .put(POSTING).put(account.lastType()).putLong(account.lastEpochMillis())
+                .putLong(id).putLong(account.version()).putLong(account.lastCents());
+        return append(record);
+    }
+
+    long logTransfer(long fromId, BankAccount from, long toId, BankAccount to) {
+        ByteBuffer record = ByteBuffer.allocate(1 + 8 * 6)
+                .put(TRANSFER).putLong(from.lastEpochMillis())
+                .putLong(fromId).putLong(from.version()).putLong(toId).putLong(to.version())
+                .putLong(from.lastCents());
+        return append(record);
+    }
+
+    void awaitDurable(long lsn) {
+        try {
+            log.awaitDurable(lsn);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Write-ahead log failed", e);
+        }
+    }
+
+    long fsyncs() {
+        return log.fsyncs();
+    }
+
+    // Writes every balance to snapshot-<gen>.snap, then drops the files it replaces.
+    synchronized void snapshot() throws IOException {
+        if (closed) throw new IllegalStateException("Ledger is closed");
+        long next = generation + 1;
+        log.rotate(logFile(directory, next));
+        generation = next;
+        sinceSnapshot.set(0);
+
+        Path tmp = directory.resolve("snapshot-" + next + ".snap.tmp");
+        CRC32C crc = new CRC32C();
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(System.currentTimeMillis());
+            IOException[] error = new IOException[1];
+            ledger.forEachWithId((account, id) -> {
+                if (error[0] != null) return;
+                long balance;
+                long version;
+                synchronized (account) {
+                    balance = account.getBalanceCents();
+                    version = account.version();
+                }
+                try {
+                    out.writeLong(id);
+                    out.writeLong(balance);
+                    out.writeLong(version);
+                    out.writeUTF(account.getOwnerName());
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) throw error[0];
+            out.writeLong(-1);
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            file.getChannel().force(true);
+        }
+        Files.move(tmp, snapshotFile(directory, next), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        List<Path> stale = new ArrayList<>();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher m = FILE_NAME.matcher(file.getFileName().toString());
+                if (m.matches() && Long.parseLong(m.group(2)) < next) stale.add(file);
+            }
+        }
+        for (Path file : stale) Files.deleteIfExists(file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        log.close();
+    }
+
+    private long append(ByteBuffer record) {
+        long lsn = log.append(record.flip());
+        if (sinceSnapshot.incrementAndGet() >= snapshotEvery && snapshotting.compareAndSet(false, true)) {
+            Thread.ofPlatform().daemon().name("ledger-snapshot").start(() -> {
+                try {
+                    synchronized (this) {
+                        if (!closed) snapshot();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Snapshot failed: " + e.getMessage());
+                } finally {
+                    snapshotting.set(false);
+                }
+            });
+        }
+        return lsn;
+    }
+
+    private static void apply(ByteBuffer record, Ledger ledger) {
+        byte kind = record.get();
+        if (kind == OPEN) {
+            long millis = record.getLong();
+            long id = record.getLong();
+            long cents = record.getLong();
+            byte[] owner = new byte[record.getInt()];
+            record.get(owner);
+            if (ledger.find(id) == null) {
+                ledger.restore(id, BankAccount.restore(new String(owner, StandardCharsets.UTF_8), cents, 1, millis));
+            }
+        } else if (kind == POSTING) {
+            byte type = record.get();
+            long millis = record.getLong();
+            BankAccount account = ledger.account(record.getLong());
+            long version = record.getLong();
+            account.replay(type, record.getLong(), millis, version);
+        } else if (kind == TRANSFER) {
+            long millis = record.getLong();
+            BankAccount from = ledger.account(record.getLong());
+            long fromVersion = record.getLong();
+            BankAccount to = ledger.account(record.getLong());
+            long toVersion = record.getLong();
+            long cents = record.getLong();
+            from.replay(TransactionJournal.TRANSFER_OUT, cents, millis, fromVersion);
+            to.replay(TransactionJournal.TRANSFER_IN, cents, millis, toVersion);
+        } else {
+            throw new IllegalStateException("Unknown log record kind " + kind);
+        }
+    }
+
+    private static void loadSnapshot(Path file, Ledger ledger) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16), crc))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a ledger snapshot: " + file);
+            long millis = in.readLong();
+            for (long id = in.readLong(); id >= 0; id = in.readLong()) {
+                long balance = in.readLong();
+                long version = in.readLong();
+                ledger.restore(id, BankAccount.restore(in.readUTF(), balance, version, millis));
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) throw new IOException("Corrupt ledger snapshot: " + file);
+        }
+    }
+
+    // Makes the rename that published a snapshot survive a crash.
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory; the rename is still atomic there
+        }
+    }
+
+    private static Path logFile(Path directory, long generation) {
+        return directory.resolve("wal-" + generation + ".log");
+    }
+
+    private static Path snapshotFile(Path directory, long generation) {
+        return directory.resolve("snapshot-" + generation + ".snap");
+    }
+}
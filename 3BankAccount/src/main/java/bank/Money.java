@@ -0,0 +1,77 @@
+package bank;
+
+import java.math.RoundingMode;
+
+// Fixed-point money: amounts are long cents, interest rates are long parts per billion of the
+// balance (5% = 50_000_000). Everything here is primitive arithmetic; overflow throws
+// ArithmeticException instead of wrapping, and nothing allocates except format().
+public final class Money {
+    public static final long CENTS_PER_UNIT = 100;
+    public static final long RATE_SCALE = 1_000_000_000L;  // parts per billion
+    public static final RoundingMode DEFAULT_ROUNDING = RoundingMode.HALF_EVEN;
+
+    // beyond this a double no longer holds whole cents exactly
+    private static final double MAX_EXACT_UNITS = (1L << 53) / (double) CENTS_PER_UNIT;
+
+    private Money() {
+    }
+
+    // Edge conversion for the double API, rounded to the nearest cent.
+    public static long cents(double amount) {
+        if (!(Math.abs(amount) < MAX_EXACT_UNITS)) throw new ArithmeticException("Amount out of range: " + amount);
+        return Math.round(amount * CENTS_PER_UNIT);
+    }
+
+    public static double toDouble(long cents) {
+        return cents / (double) CENTS_PER_UNIT;
+    }
+
+    // A percentage such as 5.25 as a rate in parts per billion.
+    public static long ratePpb(double ratePercent) {
+        if (!(Math.abs(ratePercent) < 1e9)) throw new ArithmeticException("Rate out of range: " + ratePercent);
+        return Math.round(ratePercent * (RATE_SCALE / 100));
+    }
+
+    // cents * ratePpb / RATE_SCALE, rounded once at the end. The operands are split around
+    // RATE_SCALE so no intermediate product can overflow unless the result itself does.
+    public static long interest(long cents, long ratePpb, RoundingMode mode) {
+        if (ratePpb < 0) throw new IllegalArgumentException("Rate cannot be negative");
+        long rateWhole = ratePpb / RATE_SCALE;
+        long rateFraction = ratePpb % RATE_SCALE;
+        long centsHigh = cents / RATE_SCALE;
+        long centsLow = cents % RATE_SCALE;
+        long whole = Math.addExact(Math.multiplyExact(cents, rateWhole), Math.multiplyExact(centsHigh, rateFraction));
+        long low = centsLow * rateFraction;  // both factors are below 10^9
+        whole = Math.addExact(whole, low / RATE_SCALE);
+        return round(whole, low % RATE_SCALE, RATE_SCALE, mode);
+    }
+
+    // whole + rem / divisor, where whole is truncated toward zero, |rem| < divisor and rem has
+    // the sign of the exact value.
+    static long round(long whole, long rem, long divisor, RoundingMode mode) {
+        if (rem == 0) return whole;
+        int away = rem > 0 ? 1 : -1;
+        boolean increment = switch (mode) {
+            case UNNECESSARY -> throw new ArithmeticException("Rounding necessary");
+            case DOWN -> false;
+            case UP -> true;
+            case CEILING -> away > 0;
+            case FLOOR -> away < 0;
+            case HALF_UP, HALF_DOWN, HALF_EVEN -> {
+                long absRem = Math.abs(rem);
+                long vsHalf = absRem - (divisor - absRem);
+                if (vsHalf != 0) yield vsHalf > 0;
+                yield mode == RoundingMode.HALF_UP || (mode == RoundingMode.HALF_EVEN && (whole & 1) != 0);
+            }
+        };
+        return increment ? Math.addExact(whole, away) : whole;
+    }
+
+    // "1234.05", "-0.50"
+    public static String format(long cents) {
+        long abs = Math.abs(cents);
+        String units = Long.toString(abs / CENTS_PER_UNIT);
+        long fraction = abs % CENTS_PER_UNIT;
+        return (cents < 0 ? "-" : "") + units + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+}
@@ -4,21 +4,26 @@ import java.time.LocalDateTime;
 
 public class Transaction {
     private String type;
-    private double amount;
+    private long amountCents;
     private LocalDateTime date;
 
     public Transaction(String type, double amount) {
+        this(type, Money.cents(amount), LocalDateTime.now());
+    }
+
+    Transaction(String type, long amountCents, LocalDateTime date) {
         this.type = type;
-        this.amount = amount;
-        this.date = LocalDateTime.now();
+        this.amountCents = amountCents;
+        this.date = date;
     }
 
     public String getType() { return type; }
-    public double getAmount() { return amount; }
+    public double getAmount() { return Money.toDouble(amountCents); }
+    public long getAmountCents() { return amountCents; }
     public LocalDateTime getDate() { return date; }
 
     @Override
     public String toString() {
-        return type + " of " + amount + " on " + date;
+        return type + " of " + Money.format(amountCents) + " on " + date;
     }
 }
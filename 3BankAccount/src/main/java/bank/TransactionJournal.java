@@ -0,0 +1,108 @@
+package bank;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+// Append-only transaction history kept as three primitive columns: epoch-millis timestamp,
+// type code and amount in cents, about 17 bytes per entry where a Transaction with its
+// LocalDateTime takes over 100. The first chunk starts small and doubles up to CHUNK_SIZE
+// entries, so an account with a handful of entries stays small; after that the columns grow
+// one fixed chunk at a time and never copy what is already there.
+// Not thread-safe: BankAccount guards it with the account monitor.
+final class TransactionJournal {
+    static final byte INITIAL = 0;
+    static final byte DEPOSIT = 1;
+    static final byte WITHDRAWAL = 2;
+    static final byte INTEREST = 3;
+    static final byte TRANSFER_OUT = 4;
+    static final byte TRANSFER_IN = 5;
+    private static final String[] TYPE_NAMES = {
+            "Initial Balance", "Deposit", "Withdrawal", "Interest Added", "Transfer Out", "Transfer In"};
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int FIRST_CAPACITY = 2;
+
+    private long[][] times = {new long[FIRST_CAPACITY]};
+    private byte[][] types = {new byte[FIRST_CAPACITY]};
+    private long[][] amounts = {new long[FIRST_CAPACITY]};
+    private int size;
+
+    void append(long epochMillis, byte type, long cents) {
+        int chunk = size >>> CHUNK_BITS;
+        int offset = size & (CHUNK_SIZE - 1);
+        if (chunk == times.length) {
+            int chunks = chunk * 2;
+            times = Arrays.copyOf(times, chunks);
+            types = Arrays.copyOf(types, chunks);
+            amounts = Arrays.copyOf(amounts, chunks);
+        }
+        if (times[chunk] == null) {
+            times[chunk] = new long[CHUNK_SIZE];
+            types[chunk] = new byte[CHUNK_SIZE];
+            amounts[chunk] = new long[CHUNK_SIZE];
+        } else if (offset == times[chunk].length) {
+            // only the first chunk is ever partial
+            int capacity = Math.min(CHUNK_SIZE, offset * 2);
+            times[0] = Arrays.copyOf(times[0], capacity);
+            types[0] = Arrays.copyOf(types[0], capacity);
+            amounts[0] = Arrays.copyOf(amounts[0], capacity);
+        }
+        times[chunk][offset] = epochMillis;
+        types[chunk][offset] = type;
+        amounts[chunk][offset] = cents;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long epochMillis(int i) {
+        return times[i >>> CHUNK_BITS][i & (CHUNK_SIZE - 1)];
+    }
+
+    byte type(int i) {
+        return types[i >>> CHUNK_BITS][i & (CHUNK_SIZE - 1)];
+    }
+
+    long cents(int i) {
+        return amounts[i >>> CHUNK_BITS][i & (CHUNK_SIZE - 1)];
+    }
+
+    static boolean isDebit(byte type) {
+        return type == WITHDRAWAL || type == TRANSFER_OUT;
+    }
+
+    static String typeName(byte type) {
+        return TYPE_NAMES[type];
+    }
+
+    Transaction transaction(int i) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis(i)), ZoneId.systemDefault());
+        return new Transaction(typeName(type(i)), cents(i), date);
+    }
+
+    // The first `size` entries as Transactions, each built when it is read. Reads take `lock`,
+    // the monitor appends happen under, since a chunk may be swapped out by a concurrent append.
+    List<Transaction> view(Object lock, int size) {
+        return new AbstractList<>() {
+            @Override
+            public Transaction get(int index) {
+                if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+                synchronized (lock) {
+                    return transaction(index);
+                }
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
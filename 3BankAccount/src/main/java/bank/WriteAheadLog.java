@@ -0,0 +1,250 @@
+package bank;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+// Append-only record log with group commit. append() only copies the record into a buffer and
+// returns its log sequence number (the log's byte length once it is written); the "wal-flush"
+// thread writes the buffer and fsyncs once at least syncBatch records are waiting, or when the
+// oldest has waited MAX_WAIT, and awaitDurable() blocks until that covers the caller's record.
+// Records are [int length][int crc32c][payload]; a torn tail after a crash fails its length or
+// checksum and is cut off by replay().
+final class WriteAheadLog implements AutoCloseable {
+    private static final int HEADER = 8;
+    private static final int MAX_RECORD = 1 << 20;
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    // held by whoever writes to the channel, so a rotation never interleaves with a flush
+    private final ReentrantLock io = new ReentrantLock();
+    private final int syncBatch;
+    private final CRC32C crc = new CRC32C();  // under lock
+    private final LongAdder syncs = new LongAdder();
+    private final Thread flusher;
+
+    private FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+    private int pendingRecords;
+    private long firstPendingNanos;
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+    private boolean finished;  // the flush in close() is over; durable will not move again
+
+    // Appends at the end of file, which replay() has cut back to its last intact record.
+    WriteAheadLog(Path file, int syncBatch) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        this.syncBatch = Math.max(1, syncBatch);
+        this.flusher = Thread.ofPlatform().daemon().name("wal-flush").start(this::flushLoop);
+    }
+
+    // Returns the LSN to pass to awaitDurable().
+    long append(ByteBuffer payload) {
+        int length = payload.remaining();
+        if (length > MAX_RECORD) throw new IllegalArgumentException("Record too large: " + length);
+        lock.lock();
+        try {
+            if (failure != null) throw new UncheckedIOException("Write-ahead log failed", failure);
+            if (closed) throw new IllegalStateException("Write-ahead log is closed");
+            if (pending.remaining() < HEADER + length) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + HEADER + length));
+                pending.flip();
+                pending = bigger.put(pending);
+            }
+            crc.reset();
+            crc.update(payload.duplicate());
+            pending.putInt(length).putInt((int) crc.getValue()).put(payload);
+            appended += HEADER + length;
+            if (pendingRecords++ == 0) firstPendingNanos = System.nanoTime();
+            if (pendingRecords == 1 || pendingRecords >= syncBatch) work.signal();
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Throws if the record cannot become durable any more: the log failed, or it was closed
+    // before the record was covered.
+    void awaitDurable(long lsn) throws IOException {
+        lock.lock();
+        try {
+            while (durable < lsn && failure == null && !finished) synced.awaitUninterruptibly();
+            if (durable >= lsn) return;
+            throw failure != null ? failure : new IOException("Write-ahead log is closed");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Syncs everything appended so far to the current file, then appends to next from here on.
+    void rotate(Path next) throws IOException {
+        io.lock();
+        try {
+            FileChannel nextChannel = FileChannel.open(next, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            flush(true);
+            FileChannel old = channel;
+            channel = nextChannel;
+            old.close();
+        } finally {
+            io.unlock();
+        }
+    }
+
+    long fsyncs() {
+        return syncs.sum();
+    }
+
+    // Appends are refused from the moment close() takes the lock, so everything accepted before
+    // is in the final flush and no waiter is left behind.
+    @Override
+    public void close() throws IOException {
+        io.lock();
+        try {
+            lock.lock();
+            try {
+                if (closed) return;
+                closed = true;
+                work.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            flush(true);
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                lock.lock();
+                try {
+                    finished = true;
+                    synced.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                io.unlock();
+            }
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                while (!closed && !due()) {
+                    if (pendingRecords == 0) {
+                        work.awaitUninterruptibly();
+                    } else {
+                        work.awaitNanos(MAX_WAIT_NANOS - (System.nanoTime() - firstPendingNanos));
+                    }
+                }
+                if (closed) return;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            io.lock();
+            try {
+                flush(false);
+            } catch (IOException e) {
+                // recorded in failure; every waiter gets it
+            } finally {
+                io.unlock();
+            }
+        }
+    }
+
+    private boolean due() {
+        return pendingRecords >= syncBatch
+                || (pendingRecords > 0 && System.nanoTime() - firstPendingNanos >= MAX_WAIT_NANOS);
+    }
+
+    // Caller holds io. Writes and fsyncs whatever is pending; with force, even if nothing is.
+    private void flush(boolean force) throws IOException {
+        long target;
+        lock.lock();
+        try {
+            if (failure != null) throw failure;
+            if (pendingRecords == 0 && !force) return;
+            ByteBuffer swap = writing;
+            writing = pending;
+            pending = swap;
+            pending.clear();
+            pendingRecords = 0;
+            target = appended;
+        } finally {
+            lock.unlock();
+        }
+        IOException error = null;
+        try {
+            writing.flip();
+            while (writing.hasRemaining()) channel.write(writing);
+            channel.force(false);
+            syncs.increment();
+        } catch (IOException e) {
+            error = e;
+        }
+        writing.clear();
+        lock.lock();
+        try {
+            if (error != null) {
+                failure = error;
+            } else {
+                durable = target;
+            }
+            synced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (error != null) throw error;
+    }
+
+    // Feeds every intact record's payload to apply, then truncates anything after the last one.
+    // Returns the file's valid length.
+    static long replay(Path file, Consumer<ByteBuffer> apply) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            CRC32C check = new CRC32C();
+            long position = 0;
+            while (position + HEADER <= size) {
+                header.clear();
+                ch.read(header, position);
+                int length = header.getInt(0);
+                if (length < 0 || length > MAX_RECORD || position + HEADER + length > size) break;
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                while (payload.hasRemaining()) ch.read(payload, position + HEADER + payload.position());
+                payload.flip();
+                check.reset();
+                check.update(payload.duplicate());
+                if ((int) check.getValue() != header.getInt(4)) break;
+                apply.accept(payload);
+                position += HEADER + length;
+            }
+            if (position < size) {
+                ch.truncate(position);
+                ch.force(true);
+            }
+            return position;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package bankbench;
+
+import bank.InterestRun;
+import bank.Ledger;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/*
+ * Month-end interest over a whole Ledger: one account after another, then InterestRun on
+ * fork/join pools of 1 up to all cores.
+ *
+ *   java -Xmx4g -cp target/classes bankbench.BatchInterest [accounts]
+ *
+ * Every step gets a fresh ledger, so all of them grow the same journals. While each step
+ * runs, one thread keeps depositing to random accounts; "deposit max" is the longest any of
+ * those deposits took, which includes being descheduled when there are fewer cores than
+ * threads.
+ */
+public class BatchInterest {
+    private static final double RATE_PERCENT = 0.4167;
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        step("warm-up", accounts, ledger -> new InterestRun(ledger, RATE_PERCENT).run(), false);
+        step("warm-up", accounts, ledger -> ledger.forEach(a -> a.applyInterest(RATE_PERCENT)), false);
+        step("loop", accounts, ledger -> ledger.forEach(a -> a.applyInterest(RATE_PERCENT)), true);
+        for (int p = 1; ; p = Math.min(p * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(p);
+            step("fork/join x" + p, accounts, ledger -> new InterestRun(ledger, RATE_PERCENT).run(pool), true);
+            pool.shutdown();
+            if (p == cores) break;
+        }
+    }
+
+    private static void step(String label, int accounts, Consumer<Ledger> job, boolean report) throws InterruptedException {
+        Ledger ledger = new Ledger();
+        for (int i = 0; i < accounts; i++) ledger.openCents("owner" + i, 100_000);
+        System.gc();
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[] worst = new long[1];
+        long[] deposits = new long[1];
+        Thread depositor = Thread.ofPlatform().start(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running.get()) {
+                long begin = System.nanoTime();
+                ledger.depositCents(random.nextLong(ledger.size()), 1);
+                worst[0] = Math.max(worst[0], System.nanoTime() - begin);
+                deposits[0]++;
+            }
+        });
+        long begin = System.nanoTime();
+        job.accept(ledger);
+        long nanos = System.nanoTime() - begin;
+        running.set(false);
+        depositor.join();
+        if (report) {
+            System.out.printf("%-14s %8.0f ms  %,12.0f accounts/s  deposit max %,8.1f us  (%,d deposits)%n",
+                    label, nanos / 1e6, ledger.size() / (nanos / 1e9), worst[0] / 1e3, deposits[0]);
+        }
+    }
+}
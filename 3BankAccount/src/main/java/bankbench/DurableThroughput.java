@@ -0,0 +1,78 @@
+package bankbench;
+
+import bank.Ledger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/*
+ * Durable deposits per second on a persistent Ledger, by fsync batch size and thread count.
+ *
+ *   java -cp target/classes bankbench.DurableThroughput [directory] [millis per step]
+ *
+ * Every deposit returns only once its log record is fsynced. A batch of n makes the log wait
+ * for n records (or 1 ms) before each fsync, so more threads share one; "per sync" is how
+ * many they actually shared. The directory (default ./ledger-bench) is wiped before every
+ * step and removed at the end; point it at the disk you care about, since /tmp is often
+ * memory.
+ */
+public class DurableThroughput {
+    private static final int[] BATCHES = {1, 4, 16, 64, 256};
+    private static final int[] THREADS = {1, 16, 64};
+    private static final int ACCOUNTS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Path.of(args.length > 0 ? args[0] : "ledger-bench");
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 2_000;
+
+        run(dir, 1, 16, millis, false);  // warm-up
+        for (int threads : THREADS) {
+            for (int batch : BATCHES) run(dir, batch, threads, millis, true);
+        }
+        wipe(dir);
+    }
+
+    private static void run(Path dir, int batch, int threads, long millis, boolean report) throws Exception {
+        wipe(dir);
+        LongAdder done = new LongAdder();
+        long fsyncs;
+        long nanos;
+        try (Ledger ledger = new Ledger(dir, batch, Long.MAX_VALUE)) {
+            for (int i = 0; i < ACCOUNTS; i++) ledger.openCents("owner" + i, 0);
+            long startFsyncs = ledger.fsyncs();
+            long deadline = System.nanoTime() + millis * 1_000_000;
+            Thread[] workers = new Thread[threads];
+            long begin = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                workers[t] = Thread.ofPlatform().start(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        ledger.depositCents(random.nextInt(ACCOUNTS), 1);
+                        done.increment();
+                    }
+                });
+            }
+            for (Thread w : workers) w.join();
+            nanos = System.nanoTime() - begin;
+            fsyncs = ledger.fsyncs() - startFsyncs;
+        }
+        if (report) {
+            long ops = done.sum();
+            System.out.printf("threads=%-3d batch=%-4d %,10.0f tx/s  %,8d fsyncs  %6.1f per sync  %8.1f us/tx%n",
+                    threads, batch, ops / (nanos / 1e9), fsyncs, (double) ops / Math.max(1, fsyncs),
+                    nanos / 1e3 * threads / Math.max(1, ops));
+        }
+    }
+
+    private static void wipe(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package bankbench;
+
+import bank.BankAccount;
+import bank.Transaction;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Heap per transaction: the columnar journal against the previous List<Transaction>.
+ *
+ *   java -cp target/classes bankbench.JournalFootprint [accounts] [transactions per account]
+ *
+ * "objects" rebuilds the old layout, an ArrayList of Transactions each holding a
+ * LocalDateTime, next to the same number of accounts; "journal" is BankAccount as it is now.
+ */
+public class JournalFootprint {
+
+    public static void main(String[] args) throws InterruptedException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int perAccount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        long entries = (long) accounts * perAccount;
+
+        long journal = journal(accounts, perAccount);
+        report("journal", journal, entries);
+        long objects = objects(accounts, perAccount);
+        report("objects", objects, entries);
+        System.out.printf("ratio: %.1fx%n", objects / (double) journal);
+    }
+
+    // Each layout is built and measured in its own frame, so nothing of it is left when the
+    // next one takes its baseline.
+    private static long objects(int accounts, int perAccount) throws InterruptedException {
+        long before = usedHeapAfterGc();
+        List<List<Transaction>> old = new ArrayList<>(accounts);
+        for (int a = 0; a < accounts; a++) {
+            List<Transaction> list = new ArrayList<>();
+            for (int i = 0; i < perAccount; i++) list.add(new Transaction("Deposit", 1.0 + (i % 100)));
+            old.add(list);
+        }
+        long bytes = usedHeapAfterGc() - before;
+        Reference.reachabilityFence(old);
+        return bytes;
+    }
+
+    private static long journal(int accounts, int perAccount) throws InterruptedException {
+        long before = usedHeapAfterGc();
+        BankAccount[] journals = new BankAccount[accounts];
+        for (int a = 0; a < accounts; a++) {
+            journals[a] = BankAccount.ofCents("owner" + a, 0);
+            for (int i = 1; i < perAccount; i++) journals[a].depositCents(100 + (i % 100));
+        }
+        long bytes = usedHeapAfterGc() - before;
+        Reference.reachabilityFence(journals);
+        return bytes;
+    }
+
+    private static void report(String label, long bytes, long entries) {
+        System.out.printf("%-8s %6d MB  %6.1f bytes/transaction%n", label, bytes >> 20, bytes / (double) entries);
+    }
+
+    static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
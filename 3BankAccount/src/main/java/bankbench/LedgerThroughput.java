@@ -0,0 +1,76 @@
+package bankbench;
+
+import bank.Ledger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Ledger operations per second with 1 to 64 threads.
+ *
+ *   java -cp target/classes bankbench.LedgerThroughput [accounts] [ops per step]
+ *
+ * Each thread runs a mix of 45% deposits, 45% withdrawals and 10% transfers on random
+ * accounts. "spread" picks from every account; "hot" sends everything to 16 accounts to show
+ * what lock contention costs. Every step uses a fresh ledger, so journals from earlier steps
+ * do not pile up on the heap.
+ */
+public class LedgerThroughput {
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int HOT_ACCOUNTS = 16;
+
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 4_000_000;
+
+        run("warm-up", 4, accounts, accounts, ops, false);
+        for (int threads : THREADS) run("spread", threads, accounts, accounts, ops, true);
+        for (int threads : THREADS) run("hot", threads, accounts, HOT_ACCOUNTS, ops, true);
+    }
+
+    private static void run(String label, int threads, int accounts, int used, int ops, boolean report)
+            throws InterruptedException {
+        Ledger ledger = new Ledger();
+        for (int i = 0; i < accounts; i++) ledger.open("owner" + i, 1_000_000);
+        LongAdder refused = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int share = ops / threads;
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < share; i++) {
+                    int a = random.nextInt(used);
+                    int kind = random.nextInt(100);
+                    try {
+                        if (kind < 45) {
+                            ledger.deposit(a, 10);
+                        } else if (kind < 90) {
+                            ledger.withdraw(a, 10);
+                        } else {
+                            int b = random.nextInt(used - 1);
+                            ledger.transfer(a, b >= a ? b + 1 : b, 10);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        refused.increment();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) w.join();
+        long nanos = System.nanoTime() - begin;
+        if (report) {
+            System.out.printf("%-6s threads=%-3d %,12.0f ops/s  (%d refused)%n",
+                    label, threads, ops / (nanos / 1e9), refused.sum());
+        }
+    }
+}
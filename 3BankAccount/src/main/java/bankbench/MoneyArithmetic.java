@@ -0,0 +1,110 @@
+package bankbench;
+
+import bank.Money;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/*
+ * Cost and accuracy of the balance arithmetic: double, long cents and BigDecimal.
+ *
+ *   java -cp target/classes bankbench.MoneyArithmetic [accounts] [rounds]
+ *
+ * Every round deposits 0.10 to and withdraws 0.03 from each account; every 30th round also
+ * posts 0.4167% interest. "double" is the original BankAccount arithmetic, "long cents" is
+ * Money with half-even interest rounding, "BigDecimal" does the same rounding with objects.
+ * Drift is the double total's distance from the exact (BigDecimal) result.
+ */
+public class MoneyArithmetic {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final int INTEREST_EVERY = 30;
+    private static final double RATE_PERCENT = 0.4167;
+
+    public static void main(String[] args) {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3_000;
+
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;  // first round is warm-up
+            double d = doubles(accounts, rounds, report);
+            long c = cents(accounts, rounds, report);
+            BigDecimal b = bigDecimals(accounts, rounds, report);
+            if (report) {
+                System.out.printf("totals: double %.6f, long cents %s, BigDecimal %s%n", d, Money.format(c), b.toPlainString());
+                System.out.printf("double drift from exact: %.6f%n", BigDecimal.valueOf(d).subtract(b).doubleValue());
+            }
+        }
+    }
+
+    private static double doubles(int accounts, int rounds, boolean report) {
+        double[] balances = new double[accounts];
+        long[] start = begin();
+        for (int r = 1; r <= rounds; r++) {
+            for (int i = 0; i < accounts; i++) {
+                balances[i] += 0.10;
+                balances[i] -= 0.03;
+                if (r % INTEREST_EVERY == 0) balances[i] += balances[i] * (RATE_PERCENT / 100);
+            }
+        }
+        end("double", start, accounts, rounds, report);
+        double total = 0;
+        for (double b : balances) total += b;
+        return total;
+    }
+
+    private static long cents(int accounts, int rounds, boolean report) {
+        long[] balances = new long[accounts];
+        long deposit = Money.cents(0.10);
+        long withdrawal = Money.cents(0.03);
+        long rate = Money.ratePpb(RATE_PERCENT);
+        long[] start = begin();
+        for (int r = 1; r <= rounds; r++) {
+            for (int i = 0; i < accounts; i++) {
+                balances[i] = Math.addExact(balances[i], deposit);
+                balances[i] = Math.subtractExact(balances[i], withdrawal);
+                if (r % INTEREST_EVERY == 0) {
+                    balances[i] = Math.addExact(balances[i], Money.interest(balances[i], rate, RoundingMode.HALF_EVEN));
+                }
+            }
+        }
+        end("long cents", start, accounts, rounds, report);
+        long total = 0;
+        for (long b : balances) total = Math.addExact(total, b);
+        return total;
+    }
+
+    private static BigDecimal bigDecimals(int accounts, int rounds, boolean report) {
+        BigDecimal[] balances = new BigDecimal[accounts];
+        Arrays.fill(balances, BigDecimal.ZERO.setScale(2));
+        BigDecimal deposit = new BigDecimal("0.10");
+        BigDecimal withdrawal = new BigDecimal("0.03");
+        BigDecimal rate = new BigDecimal(Double.toString(RATE_PERCENT)).movePointLeft(2);
+        long[] start = begin();
+        for (int r = 1; r <= rounds; r++) {
+            for (int i = 0; i < accounts; i++) {
+                balances[i] = balances[i].add(deposit).subtract(withdrawal);
+                if (r % INTEREST_EVERY == 0) {
+                    balances[i] = balances[i].add(balances[i].multiply(rate).setScale(2, RoundingMode.HALF_EVEN));
+                }
+            }
+        }
+        end("BigDecimal", start, accounts, rounds, report);
+        BigDecimal total = BigDecimal.ZERO;
+        for (BigDecimal b : balances) total = total.add(b);
+        return total;
+    }
+
+    private static long[] begin() {
+        return new long[] {System.nanoTime(), THREADS.getCurrentThreadAllocatedBytes()};
+    }
+
+    private static void end(String label, long[] start, int accounts, int rounds, boolean report) {
+        long nanos = System.nanoTime() - start[0];
+        long bytes = THREADS.getCurrentThreadAllocatedBytes() - start[1];
+        double ops = (double) accounts * rounds * 2;
+        if (report) System.out.printf("%-10s %6.2f ns/op %8.2f bytes/op%n", label, nanos / ops, bytes / ops);
+    }
+}
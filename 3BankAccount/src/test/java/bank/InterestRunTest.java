@@ -0,0 +1,119 @@
+package bank;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InterestRunTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testPostsOnceToEveryAccount() {
+        Ledger ledger = new Ledger();
+        for (int i = 0; i < 20_000; i++) ledger.openCents("owner" + i, 1_000 + i);
+        InterestRun run = new InterestRun(ledger, Money.ratePpb(1.5), RoundingMode.HALF_EVEN);
+        run.run(new ForkJoinPool(4));
+
+        assertEquals(20_000, run.posted());
+        long total = 0;
+        long date = -1;
+        for (int i = 0; i < 20_000; i++) {
+            BankAccount account = ledger.account(i);
+            List<Transaction> history = account.getTransactions();
+            assertEquals(2, history.size());
+            Transaction entry = history.get(1);
+            assertEquals("Interest Added", entry.getType());
+            assertEquals(Money.interest(1_000 + i, Money.ratePpb(1.5), RoundingMode.HALF_EVEN), entry.getAmountCents());
+            assertEquals(1_000 + i + entry.getAmountCents(), account.getBalanceCents());
+            total += entry.getAmountCents();
+            long millis = account.lastEpochMillis();
+            if (date < 0) date = millis;
+            assertEquals(date, millis);
+        }
+        assertEquals(total, run.totalInterestCents());
+    }
+
+    @Test
+    void testDepositsDuringRunAreNotLost() throws Exception {
+        Ledger ledger = new Ledger();
+        int accounts = 50_000;
+        for (int i = 0; i < accounts; i++) ledger.openCents("owner" + i, 10_000);
+        Thread depositor = Thread.ofPlatform().start(() -> {
+            for (int i = 0; i < 200_000; i++) ledger.depositCents(i % accounts, 1);
+        });
+        InterestRun run = new InterestRun(ledger, 1);
+        run.run();
+        depositor.join();
+
+        long interest = 0;
+        for (int i = 0; i < accounts; i++) {
+            int entries = 0;
+            for (Transaction t : ledger.account(i).getTransactions()) {
+                if (!t.getType().equals("Interest Added")) continue;
+                assertTrue(t.getAmountCents() >= 100);
+                interest += t.getAmountCents();
+                entries++;
+            }
+            assertEquals(1, entries);
+        }
+        assertEquals(interest, run.totalInterestCents());
+        assertEquals(accounts * 10_000L + 200_000 + interest, ledger.totalBalanceCents());
+    }
+
+    @Test
+    void testProgressIsReportedUpToTheEnd() {
+        Ledger ledger = new Ledger();
+        for (int i = 0; i < 100_000; i++) ledger.openCents("owner" + i, 100);
+        ConcurrentLinkedQueue<Long> reports = new ConcurrentLinkedQueue<>();
+        new InterestRun(ledger, 1).onProgress(reports::add).run();
+        assertTrue(reports.size() >= 10, "only " + reports.size() + " reports");
+        assertTrue(reports.stream().allMatch(done -> done > 0 && done <= 100_000));
+        assertEquals(100_000, List.copyOf(reports).get(reports.size() - 1).longValue());
+    }
+
+    @Test
+    void testOverflowingAccountIsSkipped() {
+        Ledger ledger = new Ledger();
+        ledger.openCents("rich", Long.MAX_VALUE - 1);
+        ledger.openCents("normal", 10_000);
+        InterestRun run = new InterestRun(ledger, 1);
+        run.run();
+        assertEquals(1, run.posted());
+        assertEquals(1, run.failed());
+        assertEquals(Long.MAX_VALUE - 1, ledger.account(0).getBalanceCents());
+        assertEquals(10_100, ledger.account(1).getBalanceCents());
+    }
+
+    @Test
+    void testRunsOnlyOnce() {
+        InterestRun run = new InterestRun(new Ledger(), 1);
+        run.run();
+        assertThrows(IllegalStateException.class, run::run);
+        assertThrows(IllegalArgumentException.class, () -> new InterestRun(new Ledger(), -1));
+        assertThrows(IllegalArgumentException.class, () -> new InterestRun(new Ledger(), -1L, RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    void testPersistentRunSurvivesReopen() throws Exception {
+        long[] balances = new long[10_000];
+        try (Ledger ledger = new Ledger(dir)) {
+            for (int i = 0; i < balances.length; i++) ledger.openCents("owner" + i, 5_000 + i);
+            long fsyncs = ledger.fsyncs();
+            new InterestRun(ledger, 2).run();
+            assertTrue(ledger.fsyncs() - fsyncs < balances.length / 10, "one fsync per account");
+            for (int i = 0; i < balances.length; i++) balances[i] = ledger.account(i).getBalanceCents();
+        }
+        try (Ledger ledger = new Ledger(dir)) {
+            for (int i = 0; i < balances.length; i++) assertEquals(balances[i], ledger.account(i).getBalanceCents());
+        }
+    }
+}
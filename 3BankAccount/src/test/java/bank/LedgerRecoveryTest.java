@@ -0,0 +1,213 @@
+package bank;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LedgerRecoveryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReopenReplaysTheLog() throws Exception {
+        long a, b;
+        try (Ledger ledger = new Ledger(dir)) {
+            a = ledger.open("Lalith", 100);
+            b = ledger.open("Kumar", 50);
+            ledger.deposit(a, 25.50);
+            ledger.withdraw(b, 10);
+            ledger.transfer(a, b, 40);
+            ledger.applyInterest(b, 10);
+            assertThrows(IllegalArgumentException.class, () -> ledger.withdraw(b, 1000));
+        }
+        try (Ledger ledger = new Ledger(dir)) {
+            assertEquals(2, ledger.size());
+            assertEquals(8550, ledger.account(a).getBalanceCents());
+            assertEquals(8800, ledger.account(b).getBalanceCents());
+            assertEquals("Kumar", ledger.account(b).getOwnerName());
+            assertEquals(List.of("Initial Balance", "Withdrawal", "Transfer In", "Interest Added"), types(ledger.account(b)));
+            assertEquals(2, ledger.open("New", 1));
+        }
+    }
+
+    @Test
+    void testSnapshotThenLogTail() throws Exception {
+        long a;
+        try (Ledger ledger = new Ledger(dir)) {
+            a = ledger.open("Lalith", 100);
+            ledger.deposit(a, 20);
+            ledger.snapshot();
+            ledger.withdraw(a, 5);
+        }
+        assertEquals(List.of("snapshot-1.snap", "wal-1.log"), files());
+        try (Ledger ledger = new Ledger(dir)) {
+            BankAccount account = ledger.account(a);
+            assertEquals(11500, account.getBalanceCents());
+            // history from before the snapshot is folded into its balance
+            assertEquals(List.of("Initial Balance", "Withdrawal"), types(account));
+            assertEquals(12000, account.getTransactions().get(0).getAmountCents());
+        }
+    }
+
+    @Test
+    void testTornTailIsCutOff() throws Exception {
+        long a;
+        try (Ledger ledger = new Ledger(dir)) {
+            a = ledger.open("Lalith", 100);
+            ledger.deposit(a, 1);
+        }
+        Path log = dir.resolve("wal-0.log");
+        long intact = Files.size(log);
+        Files.write(log, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+        try (Ledger ledger = new Ledger(dir)) {
+            assertEquals(10100, ledger.account(a).getBalanceCents());
+            assertEquals(intact, Files.size(log));
+            ledger.deposit(a, 1);
+        }
+        try (Ledger ledger = new Ledger(dir)) {
+            assertEquals(10200, ledger.account(a).getBalanceCents());
+        }
+    }
+
+    @Test
+    void testSnapshotsWhileTransfersRun() throws Exception {
+        int accounts = 20;
+        long[] expected = new long[accounts];
+        try (Ledger ledger = new Ledger(dir, 8, 500)) {
+            for (int i = 0; i < accounts; i++) ledger.openCents("owner" + i, 10_000);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                threads.add(Thread.ofPlatform().start(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        long from = (seed * 7L + i) % accounts;
+                        long to = (from + 1 + i % (accounts - 1)) % accounts;
+                        try {
+                            ledger.transferCents(from, to, 1 + i % 50);
+                        } catch (IllegalArgumentException e) {
+                            // insufficient funds is fine
+                        }
+                    }
+                }));
+            }
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    for (int i = 0; i < 5; i++) ledger.snapshot();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+            for (Thread t : threads) t.join();
+            for (int i = 0; i < accounts; i++) expected[i] = ledger.account(i).getBalanceCents();
+        }
+        try (Ledger ledger = new Ledger(dir)) {
+            for (int i = 0; i < accounts; i++) assertEquals(expected[i], ledger.account(i).getBalanceCents());
+            assertEquals(accounts * 10_000L, ledger.totalBalanceCents());
+        }
+    }
+
+    @Test
+    void testCloseWhileAppendingLeavesNoWaiterBehind() throws Exception {
+        Path file = dir.resolve("race.log");
+        WriteAheadLog log = new WriteAheadLog(file, 4);
+        AtomicLong durable = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                while (true) {
+                    try {
+                        log.awaitDurable(log.append(ByteBuffer.allocate(16)));
+                        durable.incrementAndGet();
+                    } catch (IllegalStateException | IOException e) {
+                        return;
+                    }
+                }
+            }));
+        }
+        Thread.sleep(50);
+        log.close();
+        for (Thread t : threads) {
+            t.join(5_000);
+            assertFalse(t.isAlive(), "appender still waiting after close");
+        }
+        long[] records = new long[1];
+        WriteAheadLog.replay(file, payload -> records[0]++);
+        assertTrue(records[0] >= durable.get());
+    }
+
+    // Kills a JVM that is depositing, twice. Each time, every deposit it reported as done must
+    // survive, and at most the one it was in the middle of besides.
+    @Test
+    void testKilledProcessKeepsAcknowledgedDeposits() throws Exception {
+        long before = 0;
+        for (int run = 0; run < 2; run++) {
+            long printed = runAndKill(1_000);
+            try (Ledger ledger = new Ledger(dir)) {
+                long recovered = ledger.totalBalanceCents() - before;
+                assertTrue(recovered >= printed, recovered + " < " + printed);
+                assertTrue(recovered <= printed + 1, recovered + " > " + printed + " + 1");
+                before += recovered;
+            }
+        }
+    }
+
+    // Returns how many deposits the worker reported, counting the ones it printed after it had
+    // printed `deposits` lines but before the kill took effect.
+    private long runAndKill(int deposits) throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Worker.class.getName(), dir.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        long printed = 0;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            while (printed < deposits) {
+                assertNotNull(out.readLine(), "worker exited early");
+                printed++;
+            }
+            // SIGKILL: no shutdown hooks, no close(). Through the handle, because
+            // Process.destroyForcibly() would also close the pipe we still read from.
+            process.toHandle().destroyForcibly();
+            // a line cut off by the kill still means its deposit had returned
+            while (out.readLine() != null) printed++;
+            process.waitFor();
+        }
+        return printed;
+    }
+
+    // Deposits one cent at a time into ten accounts, printing a line after each one returns.
+    public static class Worker {
+        public static void main(String[] args) throws IOException {
+            Ledger ledger = new Ledger(Path.of(args[0]), 1, 300);
+            while (ledger.size() < 10) ledger.openCents("worker", 0);
+            for (long i = 0; ; i++) {
+                ledger.depositCents(i % 10, 1);
+                System.out.println(i);
+                System.out.flush();
+            }
+        }
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static List<String> types(BankAccount account) {
+        return account.getTransactions().stream().map(Transaction::getType).toList();
+    }
+}
@@ -0,0 +1,156 @@
+package bank;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LedgerTest {
+
+    private Ledger ledger;
+
+    @BeforeEach
+    void setup() {
+        ledger = new Ledger();
+    }
+
+    @Test
+    void testOpenAssignsDenseIds() {
+        assertEquals(0, ledger.open("A", 100));
+        assertEquals(1, ledger.open("B", 200));
+        assertEquals(2, ledger.size());
+        assertEquals(200, ledger.account(1).getBalance());
+    }
+
+    @Test
+    void testUnknownAccountThrows() {
+        ledger.open("A", 100);
+        assertThrows(IllegalArgumentException.class, () -> ledger.account(1));
+        assertThrows(IllegalArgumentException.class, () -> ledger.deposit(-1, 10));
+    }
+
+    @Test
+    void testOpenAcrossChunks() {
+        for (int i = 0; i < 70_000; i++) ledger.open("owner" + i, i);
+        assertEquals(69_999, ledger.account(69_999).getBalance());
+    }
+
+    @Test
+    void testTransferMovesMoney() {
+        long a = ledger.open("A", 1000);
+        long b = ledger.open("B", 0);
+        ledger.transfer(a, b, 250);
+        assertEquals(750, ledger.account(a).getBalance());
+        assertEquals(250, ledger.account(b).getBalance());
+        assertEquals("Transfer Out", ledger.account(a).getTransactions().get(1).getType());
+        assertEquals("Transfer In", ledger.account(b).getTransactions().get(1).getType());
+    }
+
+    @Test
+    void testTransferInsufficientFundsChangesNothing() {
+        long a = ledger.open("A", 100);
+        long b = ledger.open("B", 0);
+        assertThrows(IllegalArgumentException.class, () -> ledger.transfer(a, b, 101));
+        assertEquals(100, ledger.account(a).getBalance());
+        assertEquals(0, ledger.account(b).getBalance());
+        assertEquals(1, ledger.account(b).getTransactions().size());
+    }
+
+    @Test
+    void testTransferToSameAccountThrows() {
+        long a = ledger.open("A", 100);
+        assertThrows(IllegalArgumentException.class, () -> ledger.transfer(a, a, 10));
+    }
+
+    @Test
+    void testConcurrentDepositsAreNotLost() throws Exception {
+        long a = ledger.open("A", 0);
+        runThreads(16, () -> {
+            for (int i = 0; i < 10_000; i++) ledger.deposit(a, 1);
+        });
+        assertEquals(160_000, ledger.account(a).getBalance());
+        assertEquals(160_001, ledger.account(a).getTransactions().size());
+    }
+
+    @Test
+    void testConcurrentDepositsAndWithdrawalsBalance() throws Exception {
+        long a = ledger.open("A", 1_000_000);
+        runThreads(16, () -> {
+            for (int i = 0; i < 10_000; i++) {
+                ledger.deposit(a, 3);
+                ledger.withdraw(a, 2);
+            }
+        });
+        assertEquals(1_160_000, ledger.account(a).getBalance());
+    }
+
+    @Test
+    void testConcurrentTransfersConserveMoney() throws Exception {
+        int accounts = 64;
+        for (int i = 0; i < accounts; i++) ledger.open("owner" + i, 1000);
+        runThreads(16, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20_000; i++) {
+                int from = random.nextInt(accounts);
+                int to = random.nextInt(accounts);
+                if (from == to) continue;
+                try {
+                    ledger.transfer(from, to, random.nextInt(1, 200));
+                } catch (IllegalArgumentException insufficient) {
+                }
+            }
+        });
+        assertEquals(64_000, ledger.totalBalance());
+        ledger.forEach(account -> assertTrue(account.getBalance() >= 0));
+    }
+
+    @Test
+    void testOppositeTransfersDoNotDeadlock() {
+        long a = ledger.open("A", 1_000_000);
+        long b = ledger.open("B", 1_000_000);
+        assertTimeoutPreemptively(Duration.ofSeconds(20), () -> runThreads(List.of(
+                () -> {
+                    for (int i = 0; i < 100_000; i++) ledger.transfer(a, b, 1);
+                },
+                () -> {
+                    for (int i = 0; i < 100_000; i++) ledger.transfer(b, a, 1);
+                })));
+        assertEquals(2_000_000, ledger.totalBalance());
+    }
+
+    @Test
+    void testBankAccountIsSafeWithoutLedger() throws Exception {
+        BankAccount account = new BankAccount("Lalith", 0);
+        runThreads(8, () -> {
+            for (int i = 0; i < 10_000; i++) account.deposit(1);
+        });
+        assertEquals(80_000, account.getBalance());
+    }
+
+    private static void runThreads(int n, Runnable body) throws Exception {
+        runThreads(Collections.nCopies(n, body));
+    }
+
+    private static void runThreads(List<Runnable> bodies) throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (Runnable body : bodies) {
+            Thread t = new Thread(body);
+            t.setUncaughtExceptionHandler((thread, e) -> {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            });
+            threads.add(t);
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        if (!failures.isEmpty()) throw new AssertionError(failures.get(0));
+    }
+}
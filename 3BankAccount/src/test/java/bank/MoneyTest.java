@@ -0,0 +1,100 @@
+package bank;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MoneyTest {
+
+    @Test
+    void testCentsRoundsToNearestCent() {
+        assertEquals(10, Money.cents(0.1));
+        assertEquals(123456, Money.cents(1234.56));
+        assertEquals(-50, Money.cents(-0.5));
+    }
+
+    @Test
+    void testCentsRejectsOutOfRange() {
+        assertThrows(ArithmeticException.class, () -> Money.cents(1e17));
+        assertThrows(ArithmeticException.class, () -> Money.cents(Double.NaN));
+        assertThrows(ArithmeticException.class, () -> Money.cents(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    void testInterestExact() {
+        assertEquals(10_000, Money.interest(100_000, Money.ratePpb(10), RoundingMode.UNNECESSARY));
+    }
+
+    @Test
+    void testInterestRoundingModes() {
+        // 5 cents at 10% is 0.5 cent
+        long rate = Money.ratePpb(10);
+        assertEquals(0, Money.interest(5, rate, RoundingMode.HALF_EVEN));
+        assertEquals(1, Money.interest(5, rate, RoundingMode.HALF_UP));
+        assertEquals(0, Money.interest(5, rate, RoundingMode.HALF_DOWN));
+        assertEquals(0, Money.interest(5, rate, RoundingMode.DOWN));
+        assertEquals(1, Money.interest(5, rate, RoundingMode.UP));
+        // 15 cents at 10% is 1.5 cents: half-even goes to 2
+        assertEquals(2, Money.interest(15, rate, RoundingMode.HALF_EVEN));
+        assertThrows(ArithmeticException.class, () -> Money.interest(5, rate, RoundingMode.UNNECESSARY));
+    }
+
+    @Test
+    void testInterestOnNegativeBalance() {
+        long rate = Money.ratePpb(10);
+        assertEquals(-1, Money.interest(-15, rate, RoundingMode.DOWN));
+        assertEquals(-2, Money.interest(-15, rate, RoundingMode.FLOOR));
+        assertEquals(-1, Money.interest(-15, rate, RoundingMode.CEILING));
+    }
+
+    @Test
+    void testInterestMatchesBigDecimalOnLargeValues() {
+        long cents = 4_000_000_000_000_000L;
+        long rate = Money.ratePpb(1.234567891);
+        BigDecimal exact = BigDecimal.valueOf(cents).multiply(BigDecimal.valueOf(rate))
+                .divide(BigDecimal.valueOf(Money.RATE_SCALE), 0, RoundingMode.HALF_EVEN);
+        assertEquals(exact.longValueExact(), Money.interest(cents, rate, RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    void testInterestOverflowThrows() {
+        assertThrows(ArithmeticException.class,
+                () -> Money.interest(Long.MAX_VALUE / 2, Money.ratePpb(300), RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    void testFormat() {
+        assertEquals("1234.05", Money.format(123405));
+        assertEquals("-0.50", Money.format(-50));
+        assertEquals("0.00", Money.format(0));
+    }
+
+    @Test
+    void testNoDriftOverManyDeposits() {
+        BankAccount account = new BankAccount("Lalith", 0);
+        for (int i = 0; i < 1_000_000; i++) account.deposit(0.1);
+        assertEquals(10_000_000, account.getBalanceCents());
+        assertEquals(100_000.0, account.getBalance());
+    }
+
+    @Test
+    void testDepositOverflowThrowsAndKeepsBalance() {
+        BankAccount account = BankAccount.ofCents("Lalith", Long.MAX_VALUE - 10);
+        assertThrows(ArithmeticException.class, () -> account.depositCents(11));
+        assertEquals(Long.MAX_VALUE - 10, account.getBalanceCents());
+        assertEquals(1, account.getTransactions().size());
+    }
+
+    @Test
+    void testTransferOverflowChangesNothing() {
+        Ledger ledger = new Ledger();
+        long a = ledger.openCents("A", 100);
+        long b = ledger.openCents("B", Long.MAX_VALUE - 10);
+        assertThrows(ArithmeticException.class, () -> ledger.transferCents(a, b, 50));
+        assertEquals(100, ledger.account(a).getBalanceCents());
+        assertEquals(1, ledger.account(a).getTransactions().size());
+    }
+}
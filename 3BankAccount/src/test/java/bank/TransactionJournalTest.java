@@ -0,0 +1,68 @@
+package bank;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionJournalTest {
+
+    private BankAccount bank;
+
+    @BeforeEach
+    void setup() {
+        bank = new BankAccount("Lalith", 1000);
+    }
+
+    @Test
+    void testEntriesKeepOrderAcrossChunks() {
+        for (int i = 1; i <= 10_000; i++) bank.depositCents(i);
+        List<Transaction> history = bank.getTransactions();
+        assertEquals(10_001, history.size());
+        assertEquals("Initial Balance", history.get(0).getType());
+        assertEquals(100_000, history.get(0).getAmountCents());
+        for (int i = 1; i <= 10_000; i++) assertEquals(i, history.get(i).getAmountCents());
+    }
+
+    @Test
+    void testTypesAndAmounts() {
+        bank.deposit(12.34);
+        bank.withdraw(2.34);
+        bank.applyInterest(1);
+        List<Transaction> history = bank.getTransactions();
+        assertEquals("Deposit", history.get(1).getType());
+        assertEquals(12.34, history.get(1).getAmount());
+        assertEquals("Withdrawal", history.get(2).getType());
+        assertEquals("Interest Added", history.get(3).getType());
+        assertEquals(10.10, history.get(3).getAmount());
+    }
+
+    @Test
+    void testDateIsWhenPosted() {
+        LocalDateTime before = LocalDateTime.now().minusSeconds(1);
+        bank.deposit(1);
+        LocalDateTime date = bank.getTransactions().get(1).getDate();
+        assertTrue(date.isAfter(before));
+        assertTrue(Duration.between(date, LocalDateTime.now()).toSeconds() < 5);
+    }
+
+    @Test
+    void testViewIsReadOnly() {
+        List<Transaction> history = bank.getTransactions();
+        assertThrows(UnsupportedOperationException.class, () -> history.add(new Transaction("Deposit", 1)));
+        assertThrows(IndexOutOfBoundsException.class, () -> history.get(1));
+    }
+
+    @Test
+    void testViewDoesNotSeeLaterPostings() {
+        List<Transaction> history = bank.getTransactions();
+        for (int i = 0; i < 5000; i++) bank.deposit(1);
+        assertEquals(1, history.size());
+        assertEquals(1000, history.get(0).getAmount());
+        assertEquals(5001, bank.getTransactions().size());
+    }
+}
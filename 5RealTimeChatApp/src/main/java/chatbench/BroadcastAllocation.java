@@ -0,0 +1,70 @@
+package chatbench;
+
+import chatserver.Frame;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Bytes allocated and time per room broadcast, per-recipient encoding vs one shared Frame.
+ *
+ *   java -cp target/classes chatbench.BroadcastAllocation [recipients] [broadcasts]
+ *
+ * "printwriter" is the original ClientHandler path (a PrintWriter per client), "per-recipient"
+ * encodes the line to bytes for every client, "shared-frame" encodes once and hands every
+ * client a read-only duplicate.
+ */
+public class BroadcastAllocation {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static long sink;
+
+    public static void main(String[] args) {
+        int recipients = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        String line = "MSG:2026-01-01 12:00:00:general:alice:" + "a typical chat message of moderate length";
+
+        PrintWriter[] writers = new PrintWriter[recipients];
+        for (int i = 0; i < recipients; i++) writers[i] = new PrintWriter(OutputStream.nullOutputStream(), true);
+
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;  // first round is warm-up
+            run("printwriter", report, broadcasts, recipients, () -> {
+                for (PrintWriter w : writers) {
+                    w.println(line);
+                    w.flush();
+                }
+            });
+            run("per-recipient", report, broadcasts, recipients, () -> {
+                for (int i = 0; i < recipients; i++) {
+                    ByteBuffer b = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+                    sink += b.remaining();
+                }
+            });
+            run("shared-frame", report, broadcasts, recipients, () -> {
+                Frame frame = Frame.of(line);
+                for (int i = 0; i < recipients; i++) {
+                    ByteBuffer b = frame.buffer();
+                    sink += b.remaining();
+                }
+            });
+        }
+    }
+
+    private static void run(String name, boolean report, int broadcasts, int recipients, Runnable broadcast) {
+        long bytesBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < broadcasts; i++) broadcast.run();
+        long nanos = System.nanoTime() - start;
+        long bytes = THREADS.getCurrentThreadAllocatedBytes() - bytesBefore;
+        if (report) {
+            System.out.printf("%-14s %10.0f bytes/broadcast %8.1f bytes/recipient %10.1f us/broadcast%n",
+                    name, (double) bytes / broadcasts, (double) bytes / broadcasts / recipients,
+                    nanos / 1000.0 / broadcasts);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package chatbench;
+
+import chatproto.Compression;
+import chatserver.Frame;
+import chatserver.FrameDeflater;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/*
+ * CPU per MB against bytes saved, for the DEFLATE chat stream and for compressed file transfers.
+ *
+ *   java -cp target/classes chatbench.CompressionCost [frames]
+ *
+ * Chat: what one client of a busy server receives, room messages from a few dozen users with
+ * the odd join/leave, fed through FrameDeflater as the writer would. Batch 1 is a quiet client
+ * (every frame is its own write and sync flush), batch 16 one in a burst. "no context" resets
+ * the deflater before each batch, which is what compressing each write on its own would cost.
+ * Files: one deflate pass over a whole body, as for UPLOAD+deflate / DOWNLOAD+deflate; the
+ * random body shows what skipping already-compressed files saves.
+ */
+public class CompressionCost {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final String[] WORDS = (
+            "the a to and of is in it you that for on was with he this be at have are not but what all "
+            + "were when we there can an your which their said if do will each about how up out them then "
+            + "she many some so these would other into has more her two like him see time could no make than "
+            + "first been its who now people my made over did down only way find use may water long little "
+            + "very after words called just where most know lol ok thanks meeting tomorrow deploy build "
+            + "release branch merge review fixed broken works server client chat room message").split(" ");
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        List<Frame> traffic = chatTraffic(frames, new Random(42));
+        long textBytes = 0;
+        for (Frame f : traffic) textBytes += f.buffer().remaining();
+        System.out.printf("chat traffic: %,d frames, %.1f MB as text%n", frames, textBytes / 1e6);
+
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            for (boolean binary : new boolean[] {false, true}) {
+                List<Frame> stream = binary ? traffic.stream().map(Frame::binary).toList() : traffic;
+                for (int level : new int[] {1, 6, 9}) {
+                    for (int batch : new int[] {1, 16}) {
+                        chat(binary ? "BIN1" : "text", stream, level, batch, true, report);
+                    }
+                }
+                chat(binary ? "BIN1" : "text", stream, 1, 1, false, report);
+            }
+        }
+
+        Random random = new Random(7);
+        byte[] log = chatLog(4 << 20, random);
+        byte[] json = json(4 << 20, random);
+        byte[] noise = new byte[4 << 20];
+        random.nextBytes(noise);
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1;
+            for (int level : new int[] {1, 6}) {
+                file("log   ", log, level, report);
+                file("json  ", json, level, report);
+                file("random", noise, level, report);
+            }
+        }
+    }
+
+    private static void chat(String encoding, List<Frame> stream, int level, int batch, boolean context, boolean report) {
+        FrameDeflater deflater = new FrameDeflater(level);
+        Deflater reset = context ? null : Compression.newDeflater(level);
+        long in = 0;
+        long out = 0;
+        long cpu = THREADS.getCurrentThreadCpuTime();
+        for (int from = 0; from < stream.size(); from += batch) {
+            List<Frame> writes = stream.subList(from, Math.min(stream.size(), from + batch));
+            if (reset != null) {
+                // same work with the context thrown away each time
+                for (Frame f : writes) in += f.buffer().remaining();
+                out += deflateAlone(reset, writes);
+            } else {
+                out += deflater.compress(writes, 0).remaining();
+                in += deflater.lastInput();
+            }
+        }
+        cpu = THREADS.getCurrentThreadCpuTime() - cpu;
+        deflater.end();
+        if (reset != null) reset.end();
+        if (report) {
+            System.out.printf("chat %s level %d batch %2d %-10s  %5.1f%% of original  saves %4.0f KB/MB  %5.1f ms CPU/MB%n",
+                    encoding, level, batch, context ? "" : "no context", 100.0 * out / in,
+                    (in - out) / 1024.0 / (in / 1e6), cpu / 1e6 / (in / 1e6));
+        }
+    }
+
+    private static final byte[] SCRATCH = new byte[1 << 20];
+
+    private static int deflateAlone(Deflater deflater, List<Frame> writes) {
+        deflater.reset();
+        for (Frame f : writes) {
+            ByteBuffer b = f.buffer();
+            deflater.setInput(b);
+            while (!deflater.needsInput()) deflater.deflate(SCRATCH, 0, SCRATCH.length, Deflater.NO_FLUSH);
+        }
+        return deflater.deflate(SCRATCH, 0, SCRATCH.length, Deflater.SYNC_FLUSH);
+    }
+
+    private static void file(String name, byte[] body, int level, boolean report) {
+        Deflater deflater = Compression.newDeflater(level);
+        byte[] out = new byte[64 * 1024];
+        long written = 0;
+        long cpu = THREADS.getCurrentThreadCpuTime();
+        for (int off = 0; off < body.length; off += 64 * 1024) {
+            deflater.setInput(body, off, Math.min(64 * 1024, body.length - off));
+            while (!deflater.needsInput()) written += deflater.deflate(out);
+        }
+        deflater.finish();
+        while (!deflater.finished()) written += deflater.deflate(out);
+        cpu = THREADS.getCurrentThreadCpuTime() - cpu;
+        deflater.end();
+        if (report) {
+            System.out.printf("file %s level %d  %5.1f%% of original  saves %4.0f KB/MB  %5.1f ms CPU/MB%n",
+                    name, level, 100.0 * written / body.length, (body.length - written) / 1024.0 / (body.length / 1e6),
+                    cpu / 1e6 / (body.length / 1e6));
+        }
+    }
+
+    // ---- representative data ----
+
+    private static List<Frame> chatTraffic(int frames, Random r) {
+        String[] rooms = {"general", "dev-backend", "random", "release-2026-10"};
+        String[] users = new String[40];
+        for (int i = 0; i < users.length; i++) users[i] = "user" + (1000 + r.nextInt(9000));
+        List<Frame> out = new ArrayList<>(frames);
+        long second = 1_792_000_000L;
+        for (int i = 0; i < frames; i++) {
+            if (r.nextInt(4) == 0) second++;
+            String ts = String.format("2026-10-18 %02d:%02d:%02d", second / 3600 % 24, second / 60 % 60, second % 60);
+            String room = rooms[r.nextInt(rooms.length)];
+            String user = users[r.nextInt(users.length)];
+            int kind = r.nextInt(100);
+            if (kind < 3) out.add(Frame.of("INFO:" + user + " joined the room."));
+            else if (kind < 5) out.add(Frame.of("USERJOIN:" + user));
+            else out.add(Frame.msg(ts, room, user, sentence(r)));
+        }
+        return out;
+    }
+
+    private static String sentence(Random r) {
+        StringBuilder b = new StringBuilder();
+        int words = 3 + r.nextInt(20);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) b.append(' ');
+            int k = r.nextInt(40);
+            if (k == 0) b.append("https://git.example.com/pr/").append(r.nextInt(100_000));
+            else if (k == 1) b.append(Long.toHexString(r.nextLong()));
+            else b.append(WORDS[r.nextInt(WORDS.length)]);
+        }
+        return b.toString();
+    }
+
+    private static byte[] chatLog(int size, Random r) {
+        StringBuilder b = new StringBuilder(size);
+        for (Frame f : chatTraffic(size / 60, r)) {
+            b.append(StandardCharsets.UTF_8.decode(f.buffer()));
+            if (b.length() >= size) break;
+        }
+        return b.substring(0, Math.min(size, b.length())).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] json(int size, Random r) {
+        StringBuilder b = new StringBuilder(size).append('[');
+        for (int i = 0; b.length() < size; i++) {
+            b.append("{\"id\":").append(i).append(",\"user\":\"user").append(r.nextInt(5000))
+                    .append("\",\"score\":").append(r.nextDouble())
+                    .append(",\"tags\":[\"").append(WORDS[r.nextInt(WORDS.length)]).append("\",\"")
+                    .append(WORDS[r.nextInt(WORDS.length)]).append("\"],\"active\":").append(r.nextBoolean()).append("},\n");
+        }
+        return b.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
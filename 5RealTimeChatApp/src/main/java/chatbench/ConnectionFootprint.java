@@ -0,0 +1,70 @@
+package chatbench;
+
+import chatserver.ChatServer;
+import chatserver.ServerConfig;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Connects N logged-in idle clients to an in-process ChatServer and reports platform threads and heap.
+ *
+ *   java -Xss256k -cp target/classes chatbench.ConnectionFootprint <blocking|virtual|nio> <clients>
+ *
+ * Clients live in the same JVM, so the heap figure includes their sockets too; that cost is the
+ * same for every mode, so compare the numbers between modes rather than reading them absolutely.
+ * 100k clients needs about 200k file descriptors (ulimit -n) and a wide ephemeral port range.
+ */
+public class ConnectionFootprint {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "blocking";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int port = 15555;
+
+        ChatServer server = new ChatServer(ServerConfig.fromArgs(new String[] {
+                "--transport=" + mode, "--port=" + port, "--file-port=" + (port + 1)}));
+        Thread serverThread = new Thread(server::start, "chat-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        long before = usedHeapAfterGc();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        List<SocketChannel> open = new ArrayList<>(clients);
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            SocketChannel ch = SocketChannel.open(address);
+            ch.write(ByteBuffer.wrap(("LOGIN:load" + i + "\n").getBytes(StandardCharsets.UTF_8)));
+            open.add(ch);
+        }
+        long connectMillis = (System.nanoTime() - start) / 1_000_000;
+
+        Thread.sleep(2000);
+        long after = usedHeapAfterGc();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        System.out.printf("mode=%s clients=%d connect=%dms%n", mode, clients, connectMillis);
+        System.out.printf("platform threads: %d -> %d%n", threadsBefore, threadsAfter);
+        System.out.printf("heap used: %d MB -> %d MB (%.1f KB per client)%n",
+                before >> 20, after >> 20, (after - before) / 1024.0 / clients);
+
+        for (SocketChannel ch : open) ch.close();
+        System.exit(0);
+    }
+
+    static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,90 @@
+package chatbench;
+
+import chatserver.ChatServer;
+import chatserver.ClientHandler;
+import chatserver.Connection;
+import chatserver.Frame;
+import chatserver.ServerConfig;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/*
+ * Bytes allocated and time per inbound MSG and PM, from the raw line bytes to the point where
+ * the frame is queued for every recipient.
+ *
+ *   java -cp target/classes chatbench.DispatchAlloc [messages] [roomSize]
+ *
+ * Recipients have a no-op Connection, so outbound encoding (done later on the writer thread)
+ * is not counted. "old parse" repeats what handleLine did per message before: decode the
+ * line, walk the startsWith chain, substring/split and format LocalDateTime.now().
+ */
+public class DispatchAlloc {
+
+    private static final Connection NO_OP = new Connection() {
+        @Override public void send(Frame frame) {}
+        @Override public void close() {}
+        @Override public void abort() {}
+        @Override public void deflateAfter(Frame last) {}
+        @Override public int queueDepth() { return 0; }
+        @Override public long droppedMessages() { return 0; }
+    };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int roomSize = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ChatServer server = new ChatServer(ServerConfig.fromArgs(new String[] {"--port=0", "--file-port=0"}));
+        ClientHandler sender = member(server, "sender");
+        for (int i = 1; i < roomSize; i++) member(server, "member" + i);
+
+        byte[] msg = ("MSG:" + "hello there, how is everyone doing today?").getBytes(StandardCharsets.UTF_8);
+        byte[] pm = ("PM:member1:" + "hello there, how is everyone doing today?").getBytes(StandardCharsets.UTF_8);
+
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2;
+            run("MSG      ", messages, report, () -> sender.handleLine(msg, 0, msg.length));
+            run("PM       ", messages, report, () -> sender.handleLine(pm, 0, pm.length));
+            run("old parse", messages, report, () -> sink += oldParse(msg));
+        }
+        System.exit(0);
+    }
+
+    private static ClientHandler member(ChatServer server, String name) {
+        ClientHandler h = new ClientHandler(NO_OP, server);
+        h.handleLine("LOGIN:" + name);
+        h.handleLine("JOIN:bench");
+        return h;
+    }
+
+    private static void run(String name, int messages, boolean report, Runnable op) {
+        long bytes = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) op.run();
+        long nanos = System.nanoTime() - start;
+        bytes = THREADS.getCurrentThreadAllocatedBytes() - bytes;
+        if (report) {
+            System.out.printf("%s %6.1f bytes/msg  %6.0f ns/msg%n", name, (double) bytes / messages, (double) nanos / messages);
+        }
+    }
+
+    private static int oldParse(byte[] b) {
+        String line = new String(b, StandardCharsets.UTF_8);
+        if (line.startsWith("LOGIN:") || line.startsWith("JOIN:") || line.equals("LEAVE")) return 0;
+        if (line.startsWith("MSG:")) {
+            String text = line.substring(4);
+            String ts = LocalDateTime.now().format(TS);
+            return text.length() + ts.length();
+        }
+        String[] parts = line.split(":", 3);
+        return parts.length;
+    }
+}
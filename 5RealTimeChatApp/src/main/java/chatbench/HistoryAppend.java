@@ -0,0 +1,79 @@
+package chatbench;
+
+import chatserver.ChatServer;
+import chatserver.ClientHandler;
+import chatserver.Connection;
+import chatserver.Frame;
+import chatserver.ServerConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Append throughput of the room history, then the cost of replaying it on JOIN.
+ *
+ *   java -cp target/classes chatbench.HistoryAppend [messages] [senders] [rooms] [server options...]
+ *
+ * Senders are in-memory handlers with a no-op Connection calling MSG in parallel, so the
+ * number is broadcastToRoom plus the log append. History goes to a bench_history directory
+ * unless --history-dir is given; delete it afterwards.
+ */
+public class HistoryAppend {
+
+    private static final AtomicLong delivered = new AtomicLong();
+
+    private static final Connection COUNTING = new Connection() {
+        @Override public void send(Frame frame) { delivered.incrementAndGet(); }
+        @Override public void close() {}
+        @Override public void abort() {}
+        @Override public void deflateAfter(Frame last) {}
+        @Override public int queueDepth() { return 0; }
+        @Override public long droppedMessages() { return 0; }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int senders = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int rooms = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        List<String> serverArgs = new ArrayList<>(List.of("--port=0", "--file-port=0", "--history=true",
+                "--history-dir=bench_history", "--history-max-replay=100000"));
+        for (int i = 3; i < args.length; i++) serverArgs.add(args[i]);
+        ChatServer server = new ChatServer(ServerConfig.fromArgs(serverArgs.toArray(new String[0])));
+
+        ClientHandler[] clients = new ClientHandler[senders];
+        for (int i = 0; i < senders; i++) {
+            clients[i] = new ClientHandler(COUNTING, server);
+            clients[i].handleLine("LOGIN:sender" + i);
+            clients[i].handleLine("JOIN:bench" + (i % rooms));
+        }
+
+        String text = "x".repeat(80);
+        int perSender = messages / senders;
+        Thread[] threads = new Thread[senders];
+        long start = System.nanoTime();
+        for (int i = 0; i < senders; i++) {
+            ClientHandler c = clients[i];
+            threads[i] = Thread.ofPlatform().start(() -> {
+                for (int n = 0; n < perSender; n++) c.handleLine("MSG:" + text);
+            });
+        }
+        for (Thread t : threads) t.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("appended %d messages from %d senders into %d rooms in %.2f s, %.0f msgs/s%n",
+                perSender * senders, senders, rooms, seconds, perSender * senders / seconds);
+
+        for (int last : new int[] {100, 1000, 100_000}) {
+            ClientHandler reader = new ClientHandler(COUNTING, server);
+            reader.handleLine("LOGIN:reader" + last);
+            long before = delivered.get();
+            long t0 = System.nanoTime();
+            reader.handleLine("JOIN:bench0:last=" + last);
+            long micros = (System.nanoTime() - t0) / 1000;
+            System.out.printf("JOIN with last=%d: %d frames in %d us%n", last, delivered.get() - before, micros);
+            reader.handleLine("LOGOUT");
+        }
+        System.exit(0);
+    }
+}
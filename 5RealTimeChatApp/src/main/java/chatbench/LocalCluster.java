@@ -0,0 +1,154 @@
+package chatbench;
+
+import chatserver.ChatServer;
+import chatserver.ClientHandler;
+import chatserver.Connection;
+import chatserver.Frame;
+import chatserver.ServerConfig;
+
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/*
+ * Three cluster nodes in one JVM on localhost: checks that names are unique cluster-wide and
+ * that room messages and PMs cross nodes, then measures cross-node fan-out.
+ *
+ *   java -cp target/classes chatbench.LocalCluster [messages] [membersPerNode]
+ *
+ * Members are in-memory handlers. Every node has members in the room and one sender; the
+ * number reported is messages published per second and MSG frames delivered per second
+ * across all nodes. Uploaded-file state goes to bench_cluster/<node>, next to the cluster key the
+ * nodes share; delete it afterwards.
+ */
+public class LocalCluster {
+
+    private static final int NODES = 3;
+
+    private static final AtomicLong delivered = new AtomicLong();
+
+    // Counts MSG frames and, for the checks, keeps every line.
+    private static class Capture implements Connection {
+        final Queue<String> lines = new ConcurrentLinkedQueue<>();
+        final boolean keep;
+
+        Capture(boolean keep) {
+            this.keep = keep;
+        }
+
+        @Override public void send(Frame frame) {
+            ByteBuffer b = frame.buffer();
+            if (b.remaining() > 4 && b.get(b.position()) == 'M' && b.get(b.position() + 3) == ':') {
+                delivered.incrementAndGet();
+            }
+            if (keep) lines.add(StandardCharsets.UTF_8.decode(b).toString().trim());
+        }
+        @Override public void close() {}
+        @Override public void abort() {}
+        @Override public void deflateAfter(Frame last) {}
+        @Override public int queueDepth() { return 0; }
+        @Override public long droppedMessages() { return 0; }
+
+        boolean saw(String prefix) {
+            for (String line : lines) if (line.startsWith(prefix)) return true;
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 300_000;
+        int membersPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        int[] ports = new int[NODES];
+        for (int i = 0; i < NODES; i++) {
+            try (ServerSocket s = new ServerSocket(0)) { ports[i] = s.getLocalPort(); }
+        }
+        Path key = Path.of("bench_cluster", "cluster.key");
+        if (!Files.exists(key)) {
+            byte[] bytes = new byte[32];
+            new SecureRandom().nextBytes(bytes);
+            Files.createDirectories(key.getParent());
+            Files.write(key, bytes);
+        }
+        ChatServer[] nodes = new ChatServer[NODES];
+        for (int i = 0; i < NODES; i++) {
+            List<String> peers = new ArrayList<>();
+            for (int j = 0; j < NODES; j++) if (j != i) peers.add("n" + j + "@localhost:" + ports[j]);
+            nodes[i] = new ChatServer(ServerConfig.fromArgs(new String[] {"--port=0", "--file-port=0",
+                    "--files-dir=bench_cluster/n" + i, "--node-id=n" + i, "--cluster-port=" + ports[i],
+                    "--cluster-key-file=" + key, "--peers=" + String.join(",", peers)}));
+        }
+        Thread.sleep(1500);  // links dial every 500 ms until the peer is listening
+
+        Capture alice = new Capture(true), bob = new Capture(true), carol = new Capture(true), dup = new Capture(true);
+        ClientHandler a = login(nodes[0], alice, "alice");
+        ClientHandler b = login(nodes[1], bob, "bob");
+        ClientHandler c = login(nodes[2], carol, "carol");
+        login(nodes[1], dup, "alice");
+        check("duplicate name rejected on another node", () -> dup.saw("ERROR:Username already taken"));
+
+        a.handleLine("JOIN:lobby");
+        b.handleLine("JOIN:lobby");
+        c.handleLine("JOIN:lobby");
+        check("remote join announced", () -> alice.saw("USERJOIN:carol") && bob.saw("USERJOIN:carol"));
+        a.handleLine("MSG:hello from n0");
+        check("room message reaches n1 and n2", () -> bob.saw("MSG:") && carol.saw("MSG:"));
+        a.handleLine("PM:carol:psst");
+        check("PM reaches n2", () -> carol.saw("PM:"));
+        c.handleLine("LOGOUT");
+        check("remote leave announced", () -> alice.saw("USERLEAVE:carol"));
+        b.handleLine("LEAVE");
+        a.handleLine("LEAVE");
+
+        // fan-out: one sender per node, membersPerNode members per node, all in one room
+        ClientHandler[] senders = new ClientHandler[NODES];
+        for (int i = 0; i < NODES; i++) {
+            for (int m = 0; m < membersPerNode; m++) login(nodes[i], new Capture(false), "m" + i + "-" + m).handleLine("JOIN:bench");
+            senders[i] = login(nodes[i], new Capture(false), "sender" + i);
+            senders[i].handleLine("JOIN:bench");
+        }
+        Thread.sleep(500);
+
+        int recipients = NODES * (membersPerNode + 1);
+        int perSender = messages / NODES;
+        long expected = (long) perSender * NODES * recipients;
+        byte[] line = "MSG:hello there, how is everyone doing today?".getBytes(StandardCharsets.UTF_8);
+        delivered.set(0);
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (ClientHandler s : senders) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < perSender; i++) s.handleLine(line, 0, line.length);
+            }));
+        }
+        for (Thread t : threads) t.join();
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (delivered.get() < expected && System.nanoTime() < deadline) Thread.sleep(1);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d nodes, %d members per room: %.0f msgs/s published, %.0f deliveries/s (%d of %d delivered)%n",
+                NODES, recipients, perSender * NODES / seconds, delivered.get() / seconds, delivered.get(), expected);
+        System.exit(0);
+    }
+
+    private static ClientHandler login(ChatServer node, Capture conn, String name) {
+        ClientHandler h = new ClientHandler(conn, node);
+        h.handleLine("LOGIN:" + name);
+        return h;
+    }
+
+    private static void check(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        System.out.println((condition.getAsBoolean() ? "ok    " : "FAILED") + " " + what);
+    }
+}
@@ -0,0 +1,112 @@
+package chatbench;
+
+import chatserver.ChatServer;
+import chatserver.FileTransferStats;
+import chatserver.ServerConfig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Stress test: many clients upload at once to an in-process FileTransferServer.
+ *
+ *   java -cp target/classes chatbench.ParallelUploads <uploads> <sizeKB> [server options...]
+ *
+ * Server options are the usual ChatServer flags, e.g. --max-transfers=8 --file-rate-total=50000000.
+ * An upload counts as failed unless the server answers OK:id. Payloads differ in their first
+ * bytes so the attachment store cannot dedupe them; uploads are deleted again afterwards, by
+ * logging in on the chat port as their sender.
+ */
+public class ParallelUploads {
+
+    public static void main(String[] args) throws Exception {
+        int uploads = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int sizeKb = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int port = 15555;
+
+        List<String> serverArgs = new ArrayList<>(List.of("--port=" + port, "--file-port=" + (port + 1)));
+        for (int i = 2; i < args.length; i++) serverArgs.add(args[i]);
+        ChatServer server = new ChatServer(ServerConfig.fromArgs(serverArgs.toArray(new String[0])));
+        Thread serverThread = new Thread(server::start, "chat-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        byte[] payload = new byte[sizeKb * 1024];
+        ThreadLocalRandom.current().nextBytes(payload);
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port + 1);
+
+        long start = System.nanoTime();
+        List<Future<String>> results = new ArrayList<>();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < uploads; i++) {
+                int n = i;
+                results.add(clients.submit(() -> upload(address, "stress" + n + ".bin", payload)));
+            }
+            Thread reporter = Thread.ofPlatform().daemon().start(() -> {
+                while (true) {
+                    try { Thread.sleep(1000); } catch (InterruptedException e) { return; }
+                    System.out.println("  " + server.fileTransferStats());
+                }
+            });
+            int failed = 0;
+            List<String> ids = new ArrayList<>();
+            for (Future<String> f : results) {
+                try {
+                    ids.add(f.get());
+                } catch (Exception e) {
+                    failed++;
+                }
+            }
+            reporter.interrupt();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            FileTransferStats stats = server.fileTransferStats();
+            System.out.printf("%d uploads of %d KB in %.2f s, %.1f MB/s aggregate, %d failed%n",
+                    uploads, sizeKb, seconds, (double) uploads * payload.length / seconds / 1e6, failed);
+            System.out.println("server: " + stats);
+
+            deleteAll(new InetSocketAddress("127.0.0.1", port), ids);
+        }
+        System.exit(0);
+    }
+
+    private static String upload(InetSocketAddress address, String name, byte[] payload) throws IOException {
+        try (SocketChannel ch = SocketChannel.open(address)) {
+            String header = "UPLOAD:stress:" + name + ":" + payload.length + ":loadgen\n";
+            ch.write(ByteBuffer.wrap(header.getBytes(StandardCharsets.UTF_8)));
+            ByteBuffer body = ByteBuffer.wrap(payload.clone()).putInt(0, name.hashCode());
+            while (body.hasRemaining()) ch.write(body);
+
+            String line = readLine(ch);
+            if (!line.startsWith("OK:")) throw new IOException("Upload failed: " + line);
+            return line.substring(3);
+        }
+    }
+
+    private static void deleteAll(InetSocketAddress chat, List<String> ids) throws IOException {
+        StringBuilder lines = new StringBuilder("LOGIN:loadgen\n");
+        for (String id : ids) lines.append("DELFILE:").append(id).append('\n');
+        lines.append("LOGOUT\n");
+        try (SocketChannel ch = SocketChannel.open(chat)) {
+            ByteBuffer out = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) ch.write(out);
+            // the server closes once it has answered everything
+            while (ch.read(ByteBuffer.allocate(8192)) >= 0) { }
+        }
+    }
+
+    private static String readLine(SocketChannel ch) throws IOException {
+        ByteBuffer reply = ByteBuffer.allocate(256);
+        while (ch.read(reply) >= 0 && reply.get(reply.position() - 1) != '\n') { }
+        return new String(reply.array(), 0, reply.position(), StandardCharsets.UTF_8).trim();
+    }
+}
@@ -0,0 +1,80 @@
+package chatbench;
+
+import chatserver.ChatServer;
+import chatserver.ClientHandler;
+import chatserver.Connection;
+import chatserver.Frame;
+import chatserver.ServerConfig;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/*
+ * Every user disconnects and logs back into the same room, as after a deploy.
+ *
+ *   java -cp target/classes chatbench.ReconnectStorm [users] [rooms]
+ *
+ * Clients are in-memory handlers with a no-op Connection, so only the server's room and
+ * user bookkeeping is measured. "old layout" replays the previous CopyOnWriteArraySet rooms
+ * with a removeIf over every room per disconnect; it is sampled and extrapolated because
+ * a full run takes hours at these sizes.
+ */
+public class ReconnectStorm {
+
+    private static final Connection NO_OP = new Connection() {
+        @Override public void send(Frame frame) {}
+        @Override public void close() {}
+        @Override public void abort() {}
+        @Override public void deflateAfter(Frame last) {}
+        @Override public int queueDepth() { return 0; }
+        @Override public long droppedMessages() { return 0; }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rooms = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+        ChatServer server = new ChatServer(ServerConfig.fromArgs(new String[] {"--port=0", "--file-port=0"}));
+        ClientHandler[] clients = new ClientHandler[users];
+        for (int i = 0; i < users; i++) clients[i] = connect(server, i, rooms);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            clients[i].handleLine("LOGOUT");
+            clients[i] = connect(server, i, rooms);
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("indexed layout: %d reconnects across %d rooms in %d ms (%.2f us each)%n",
+                users, rooms, nanos / 1_000_000, nanos / 1000.0 / users);
+
+        oldLayout(users, rooms);
+        System.exit(0);
+    }
+
+    private static ClientHandler connect(ChatServer server, int i, int rooms) {
+        ClientHandler h = new ClientHandler(NO_OP, server);
+        h.handleLine("LOGIN:user" + i);
+        h.handleLine("JOIN:room" + (i % rooms));
+        return h;
+    }
+
+    private static void oldLayout(int users, int rooms) {
+        ConcurrentHashMap<String, CopyOnWriteArraySet<String>> old = new ConcurrentHashMap<>();
+        for (int i = 0; i < users; i++) {
+            old.computeIfAbsent("room" + (i % rooms), r -> new CopyOnWriteArraySet<>()).add("user" + i);
+        }
+        int sample = Math.min(users, 1000);
+        long start = System.nanoTime();
+        for (int i = 0; i < sample; i++) {
+            String name = "user" + i;
+            Set<String> room = old.get("room" + (i % rooms));
+            room.remove(name);
+            old.values().forEach(set -> set.removeIf(name::equals));
+            room.add(name);
+        }
+        double perReconnect = (System.nanoTime() - start) / 1000.0 / sample;
+        System.out.printf("old layout:     %.2f us each, about %d ms for %d reconnects (sampled %d)%n",
+                perReconnect, (long) (perReconnect * users / 1000), users, sample);
+    }
+}
@@ -0,0 +1,78 @@
+package chatbench;
+
+import chatproto.Wire;
+import chatserver.Frame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Frames per second per core for the text protocol and BIN1, on one thread.
+ *
+ *   java -cp target/classes chatbench.WireCodec [frames] [textLength]
+ *
+ * encode: a room MSG as the server builds it, Frame.msg(...) plus its text or binary bytes.
+ * decode: what a client does with the bytes, the indexOf chain of ChatClientGUI or Wire.string
+ * per field. The text message contains colons, which only BIN1 hands back intact.
+ */
+public class WireCodec {
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int textLength = args.length > 1 ? Integer.parseInt(args[1]) : 80;
+        String text = "see http://example.com:8080 at 10:30 ".repeat(textLength / 37 + 1).substring(0, textLength);
+
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2;
+            run("encode text  ", frames, report, () -> Frame.msg("2026-01-01 10:00:00", "general", "alice", text).buffer().remaining());
+            run("encode binary", frames, report, () -> Frame.msg("2026-01-01 10:00:00", "general", "alice", text).binary().buffer().remaining());
+
+            // as received: a client reads into its own heap buffer
+            ByteBuffer textBytes = copy(Frame.msg("2026-01-01 10:00:00", "general", "alice", text).buffer());
+            ByteBuffer binBytes = copy(Frame.msg("2026-01-01 10:00:00", "general", "alice", text).binary().buffer());
+            run("decode text  ", frames, report, () -> decodeText(textBytes.duplicate()));
+            run("decode binary", frames, report, () -> decodeBinary(binBytes.duplicate()));
+            if (report) {
+                System.out.printf("frame size: text %d bytes, binary %d bytes%n", textBytes.remaining(), binBytes.remaining());
+            }
+        }
+        if (sink == 42) System.out.println();
+    }
+
+    private static void run(String name, int frames, boolean report, java.util.function.IntSupplier op) {
+        long start = System.nanoTime();
+        long acc = 0;
+        for (int i = 0; i < frames; i++) acc += op.getAsInt();
+        long nanos = System.nanoTime() - start;
+        sink += acc;
+        if (report) System.out.printf("%s %,12.0f frames/s  (%.0f ns/frame)%n", name, frames * 1e9 / nanos, (double) nanos / frames);
+    }
+
+    private static ByteBuffer copy(ByteBuffer b) {
+        return ByteBuffer.allocate(b.remaining()).put(b).flip();
+    }
+
+    private static int decodeText(ByteBuffer b) {
+        String line = new String(b.array(), b.arrayOffset() + b.position(), b.remaining() - 1, StandardCharsets.UTF_8);
+        String data = line.substring(4);
+        int idx1 = data.indexOf(':');
+        int idx2 = data.indexOf(':', idx1 + 1);
+        int idx3 = data.indexOf(':', idx2 + 1);
+        String user = data.substring(idx2 + 1, idx3);
+        String msg = data.substring(idx3 + 1);
+        return user.length() + msg.length();
+    }
+
+    private static int decodeBinary(ByteBuffer b) {
+        int len = Wire.payloadLength(b, b.position());
+        b.position(b.position() + Wire.varintSize(len));
+        b.get();
+        Wire.string(b);
+        Wire.string(b);
+        String user = Wire.string(b);
+        String msg = Wire.string(b);
+        return user.length() + msg.length();
+    }
+}
@@ -1,30 +1,51 @@
 package chatclient;
 
+import chatproto.Compression;
+import chatproto.Wire;
+import chatproto.WireReader;
+
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class ChatClientConsole {
     private final String host;
     private final int port;
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private final boolean wantBinary;
+    private final boolean wantDeflate;
+    private volatile Socket socket;
+    private volatile OutputStream out;
+    private WireReader in;
     private Thread readerThread;
+    private volatile boolean binary;
+    private final CountDownLatch upgraded = new CountDownLatch(1);
+    // from the last RECONNECT:delayMillis:token line, if the server is draining
+    private long reconnectDelay;
+    private String resumeToken;
+
+    public ChatClientConsole(String host, int port) { this(host, port, false, false); }
 
-    public ChatClientConsole(String host, int port) { this.host = host; this.port = port; }
+    public ChatClientConsole(String host, int port, boolean binary) { this(host, port, binary, false); }
+
+    public ChatClientConsole(String host, int port, boolean binary, boolean deflate) {
+        this.host = host;
+        this.port = port;
+        this.wantBinary = binary;
+        this.wantDeflate = deflate;
+    }
 
     public void start() throws IOException {
-        socket = new Socket(host, port);
-        out = new PrintWriter(socket.getOutputStream(), true);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        connect();
         readerThread = new Thread(() -> {
             try {
-                String s;
-                while ((s = in.readLine()) != null) {
-                    System.out.println("[SERVER] " + s);
+                while (read() && resume()) {
+                    // the server drained and told us to come back; read the new connection
                 }
-            } catch (IOException e) {
+            } catch (InterruptedException e) {
             }
         });
         readerThread.start();
@@ -33,23 +54,117 @@ public class ChatClientConsole {
         System.out.println("Connected. Use commands: LOGIN:<name>, JOIN:<room>, MSG:<text>, PM:target:msg, LIST, LEAVE, LOGOUT");
         while (true) {
             String line = sc.nextLine();
-            out.println(line);
-            out.flush();
+            send(line);
             if (line.equals("LOGOUT")) break;
         }
         shutdown();
     }
 
+    private void connect() throws IOException {
+        socket = new Socket(host, port);
+        out = new BufferedOutputStream(socket.getOutputStream());
+        in = new WireReader(socket.getInputStream());
+        binary = false;
+    }
+
+    // Prints server lines until the connection ends. True if it ended with a RECONNECT hint.
+    private boolean read() {
+        resumeToken = null;
+        try {
+            while (true) {
+                String s;
+                if (binary) {
+                    ByteBuffer frame = in.readFrame();
+                    if (frame == null) break;
+                    s = Wire.toText(frame);
+                } else {
+                    s = in.readLine();
+                    if (s == null) break;
+                    if (s.equals(Wire.UPGRADE_REPLY)) {
+                        binary = true;
+                        upgraded.countDown();
+                    }
+                }
+                if (s.equals(Compression.DEFLATE_REPLY)) in.startInflating();
+                if (s.startsWith("RECONNECT:")) {
+                    int colon = s.indexOf(':', 10);
+                    reconnectDelay = Long.parseLong(s.substring(10, colon));
+                    resumeToken = s.substring(colon + 1);
+                }
+                System.out.println("[SERVER] " + s);
+            }
+        } catch (IOException e) {
+        }
+        return resumeToken != null;
+    }
+
+    // Waits out the server's hint, then reconnects and resumes the session, or asks for a LOGIN
+    // if there was none. Gives up after a few refused connects.
+    private boolean resume() throws InterruptedException {
+        Thread.sleep(reconnectDelay);
+        for (int attempt = 0; attempt < 5; attempt++) {
+            try {
+                connect();
+                if (resumeToken.isEmpty()) {
+                    System.out.println("Reconnected. Please LOGIN again.");
+                    return true;
+                }
+                String line = "RESUME:" + resumeToken;
+                if (wantBinary) line += ":" + Wire.VERSION;
+                if (wantDeflate) line += ":" + Compression.DEFLATE;
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                Thread.sleep(1000L << attempt);
+            }
+        }
+        System.out.println("Could not reconnect");
+        return false;
+    }
+
+    // With --binary the first LOGIN asks for BIN1 and nothing else is sent until the server agrees.
+    // --deflate only adds its option; the reader switches over when PROTO:DEFLATE arrives.
+    private void send(String line) throws IOException {
+        if (binary) {
+            ByteBuffer frame = Wire.encodeCommand(line);
+            out.write(frame.array(), frame.position(), frame.remaining());
+        } else if (line.startsWith("LOGIN:")) {
+            if (wantBinary) line += ":" + Wire.VERSION;
+            if (wantDeflate) line += ":" + Compression.DEFLATE;
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            if (!wantBinary) return;
+            try {
+                if (!upgraded.await(5, TimeUnit.SECONDS)) System.out.println("Server did not accept " + Wire.VERSION);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        } else {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+    }
+
     public void shutdown() throws IOException {
         if (socket != null && !socket.isClosed()) socket.close();
         if (readerThread != null) readerThread.interrupt();
     }
 
     public static void main(String[] args) throws IOException {
+        // [host] [port] [--binary] [--deflate]
         String host = "localhost";
         int port = 5555;
-        if (args.length >= 1) host = args[0];
-        if (args.length >= 2) port = Integer.parseInt(args[1]);
-        new ChatClientConsole(host, port).start();
+        boolean binary = false;
+        boolean deflate = false;
+        int positional = 0;
+        for (String arg : args) {
+            if (arg.equals("--binary")) binary = true;
+            else if (arg.equals("--deflate")) deflate = true;
+            else if (positional++ == 0) host = arg;
+            else port = Integer.parseInt(arg);
+        }
+        new ChatClientConsole(host, port, binary, deflate).start();
     }
 }
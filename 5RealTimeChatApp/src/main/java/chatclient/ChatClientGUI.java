@@ -1,15 +1,21 @@
 package chatclient;
 
+import chatproto.Compression;
+import chatproto.Wire;
+import chatproto.WireReader;
+
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 public class ChatClientGUI {
 
@@ -26,15 +32,33 @@ public class ChatClientGUI {
     private JList<String> userList;
 
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private OutputStream out;
+    private WireReader in;
 
     private final String serverHost;
     private final int serverPort;
 
+    // BIN1: requested on the first LOGIN; commands typed while waiting for PROTO:BIN1 are held back
+    private final boolean wantBinary;
+    private volatile boolean binaryIn;
+    private boolean binaryOut;
+    private List<String> held;
+    // DEFLATE: also requested on LOGIN; only what the server sends is compressed
+    private final boolean wantDeflate;
+
     public ChatClientGUI(String host, int port) {
+        this(host, port, false, false);
+    }
+
+    public ChatClientGUI(String host, int port, boolean binary) {
+        this(host, port, binary, false);
+    }
+
+    public ChatClientGUI(String host, int port, boolean binary, boolean deflate) {
         this.serverHost = host;
         this.serverPort = port;
+        this.wantBinary = binary;
+        this.wantDeflate = deflate;
         buildUI();
         connect(host, port);
     }
@@ -97,8 +121,8 @@ public class ChatClientGUI {
     private void connect(String host, int port) {
         try {
             socket = new Socket(host, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = socket.getOutputStream();
+            in = new WireReader(socket.getInputStream());
 
             new Thread(this::readLoop).start();
             appendSystem("Connected to server.");
@@ -110,16 +134,52 @@ public class ChatClientGUI {
 
     private void readLoop() {
         try {
-            String line;
-            while ((line = in.readLine()) != null) {
-                String msg = line;
-                SwingUtilities.invokeLater(() -> handleServerLine(msg));
+            while (true) {
+                if (binaryIn) {
+                    ByteBuffer frame = in.readFrame();
+                    if (frame == null) break;
+                    handleServerFrame(frame);
+                    continue;
+                }
+                String line = in.readLine();
+                if (line == null) break;
+                if (line.equals(Wire.UPGRADE_REPLY)) {
+                    binaryIn = true;
+                    SwingUtilities.invokeLater(this::upgraded);
+                    continue;
+                }
+                if (line.equals(Compression.DEFLATE_REPLY)) {
+                    in.startInflating();
+                    continue;
+                }
+                SwingUtilities.invokeLater(() -> handleServerLine(line));
             }
         } catch (IOException e) {
             appendSystem("Disconnected from server.");
         }
     }
 
+    // Decoded on the reader thread; MSG and PM arrive as fields, so colons in the text are safe.
+    private void handleServerFrame(ByteBuffer frame) {
+        switch (frame.get()) {
+            case Wire.MSG -> {
+                String ts = Wire.string(frame);
+                Wire.string(frame); // room
+                String user = Wire.string(frame), text = Wire.string(frame);
+                SwingUtilities.invokeLater(() -> showMessage(ts, user, text));
+            }
+            case Wire.PM -> {
+                String ts = Wire.string(frame), from = Wire.string(frame), text = Wire.string(frame);
+                SwingUtilities.invokeLater(() -> showPrivate(ts, from, text));
+            }
+            default -> {
+                String line = Wire.string(frame);
+                if (line.equals(Compression.DEFLATE_REPLY)) in.startInflating();
+                else SwingUtilities.invokeLater(() -> handleServerLine(line));
+            }
+        }
+    }
+
     private void appendSystem(String msg) {
         addBubble(msg, "system", null, null);
     }
@@ -191,13 +251,10 @@ public class ChatClientGUI {
             }
 
             String timestamp = data.substring(0, idx1);
-            String room = data.substring(idx1 + 1, idx2);
             String user = data.substring(idx2 + 1, idx3);
             String msg = data.substring(idx3 + 1);
 
-            boolean isMe = user.equals(usernameField.getText().trim());
-
-            addBubble(msg, isMe ? "me" : "other", isMe ? null : user, timestamp);
+            showMessage(timestamp, user, msg);
             return;
         }
 
@@ -216,13 +273,7 @@ public class ChatClientGUI {
             String fromUser = rem.substring(idxUser + 1);
             String timestamp = rem.substring(0, idxUser);
 
-            boolean isMe = fromUser.equals(usernameField.getText().trim());
-
-            addBubble("[PM] " + message,
-                    isMe ? "me" : "other",
-                    isMe ? null : fromUser,
-                    timestamp);
-
+            showPrivate(timestamp, fromUser, message);
             return;
         }
 
@@ -231,6 +282,13 @@ public class ChatClientGUI {
             return;
         }
 
+        if (line.startsWith("ERROR:" + Wire.VERSION) && held != null) {
+            // refused (e.g. already in a room): stay on text and send what was held back
+            List<String> pending = held;
+            held = null;
+            pending.forEach(this::send);
+        }
+
         if (line.startsWith("ERROR:")) {
             appendSystem("[ERROR] " + line.substring(6));
             return;
@@ -244,15 +302,77 @@ public class ChatClientGUI {
             return;
         }
 
+        // Roster deltas after the USERLIST snapshot; a name may be repeated, so apply idempotently.
+        if (line.startsWith("USERJOIN:")) {
+            for (String u : line.substring(9).split(","))
+                if (!u.isBlank() && !userModel.contains(u)) userModel.addElement(u);
+            return;
+        }
+
+        if (line.startsWith("USERLEAVE:")) {
+            for (String u : line.substring(10).split(","))
+                userModel.removeElement(u);
+            return;
+        }
+
         appendSystem(line);
     }
 
+    private void showMessage(String timestamp, String user, String msg) {
+        boolean isMe = user.equals(usernameField.getText().trim());
+        addBubble(msg, isMe ? "me" : "other", isMe ? null : user, timestamp);
+    }
+
+    private void showPrivate(String timestamp, String fromUser, String message) {
+        boolean isMe = fromUser.equals(usernameField.getText().trim());
+        addBubble("[PM] " + message,
+                isMe ? "me" : "other",
+                isMe ? null : fromUser,
+                timestamp);
+    }
+
     private void login() {
-        out.println("LOGIN:" + usernameField.getText().trim());
+        String line = "LOGIN:" + usernameField.getText().trim();
+        String deflate = wantDeflate ? ":" + Compression.DEFLATE : "";
+        if (wantBinary && !binaryOut && held == null) {
+            held = new ArrayList<>();
+            write(ByteBuffer.wrap((line + ":" + Wire.VERSION + deflate + "\n").getBytes(StandardCharsets.UTF_8)));
+        } else if (!binaryOut && held == null) {
+            send(line + deflate);
+        } else {
+            send(line);
+        }
+    }
+
+    private void upgraded() {
+        binaryOut = true;
+        List<String> pending = held;
+        held = null;
+        if (pending != null) pending.forEach(this::send);
     }
 
     private void joinRoom() {
-        out.println("JOIN:" + roomField.getText().trim());
+        send("JOIN:" + roomField.getText().trim());
+    }
+
+    // Called on the event thread only.
+    private void send(String line) {
+        if (held != null) {
+            held.add(line);
+        } else if (binaryOut) {
+            write(Wire.encodeCommand(line));
+        } else {
+            write(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private void write(ByteBuffer bytes) {
+        try {
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            out.flush();
+        } catch (IOException e) {
+            appendSystem("Send failed: " + e.getMessage());
+        }
     }
 
     private void sendMsg() {
@@ -265,11 +385,11 @@ public class ChatClientGUI {
                 appendSystem("Usage: /pm user message");
                 return;
             }
-            out.println("PM:" + p[1] + ":" + p[2]);
+            send("PM:" + p[1] + ":" + p[2]);
             addBubble("[PM] " + p[2], "me", null, now());
 
         } else {
-            out.println("MSG:" + t);
+            send("MSG:" + t);
         }
 
         inputField.setText("");
@@ -283,14 +403,24 @@ public class ChatClientGUI {
 
         String h = "localhost";
         int p = 5555;
-
-        if (args.length > 0) h = args[0];
-        if (args.length > 1) p = Integer.parseInt(args[1]);
+        boolean b = false;
+        boolean d = false;
+
+        // [host] [port] [--binary] [--deflate]
+        int positional = 0;
+        for (String arg : args) {
+            if (arg.equals("--binary")) b = true;
+            else if (arg.equals("--deflate")) d = true;
+            else if (positional++ == 0) h = arg;
+            else p = Integer.parseInt(arg);
+        }
 
         final String host = h;
         final int port = p;
+        final boolean binary = b;
+        final boolean deflate = d;
 
-        SwingUtilities.invokeLater(() -> new ChatClientGUI(host, port));
+        SwingUtilities.invokeLater(() -> new ChatClientGUI(host, port, binary, deflate));
     }
 
 }
@@ -0,0 +1,12 @@
+package chatload;
+
+import java.io.IOException;
+
+// Opens simulated clients over one kind of transport.
+interface ClientDriver {
+
+    // Connects and sends LOGIN; the rest of the handshake completes asynchronously.
+    SimClient connect(int id) throws IOException;
+
+    void shutdown();
+}
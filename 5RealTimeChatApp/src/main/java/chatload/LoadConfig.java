@@ -0,0 +1,54 @@
+package chatload;
+
+public class LoadConfig {
+
+    // VIRTUAL gives each client a blocking socket read by its own virtual thread; NIO multiplexes
+    // every client over a few selector threads.
+    public enum Transport { VIRTUAL, NIO }
+
+    String host = "localhost";
+    int port = 5555;
+    Transport transport = Transport.VIRTUAL;
+    int ioThreads = 2;
+    int clients = 1000;
+    int rooms = 50;
+    boolean binary = false;
+    // messages per second across all clients, and the size of each message's text
+    int rate = 2000;
+    int messageBytes = 64;
+    int warmupSeconds = 5;
+    int durationSeconds = 30;
+    // logins in flight at once; the server's accept backlog is small
+    int connectConcurrency = 64;
+
+    // Options are passed as --key=value, e.g. --clients=5000 --rate=10000 --transport=nio
+    public static LoadConfig fromArgs(String[] args) {
+        LoadConfig c = new LoadConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (key) {
+                case "host" -> c.host = value;
+                case "port" -> c.port = Integer.parseInt(value);
+                case "transport" -> c.transport = Transport.valueOf(value.toUpperCase());
+                case "io-threads" -> c.ioThreads = Integer.parseInt(value);
+                case "clients" -> c.clients = Integer.parseInt(value);
+                case "rooms" -> c.rooms = Integer.parseInt(value);
+                case "binary" -> c.binary = Boolean.parseBoolean(value);
+                case "rate" -> c.rate = Integer.parseInt(value);
+                case "message-bytes" -> c.messageBytes = Integer.parseInt(value);
+                case "warmup" -> c.warmupSeconds = Integer.parseInt(value);
+                case "duration" -> c.durationSeconds = Integer.parseInt(value);
+                case "connect-concurrency" -> c.connectConcurrency = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + key);
+            }
+        }
+        if (c.clients < 1 || c.rooms < 1 || c.rooms > c.clients || c.rate < 1) {
+            throw new IllegalArgumentException("Need clients >= rooms >= 1 and rate >= 1");
+        }
+        return c;
+    }
+}
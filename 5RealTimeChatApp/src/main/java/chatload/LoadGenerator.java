@@ -0,0 +1,178 @@
+package chatload;
+
+import chatserver.LatencyHistogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Headless load generator: opens many simulated clients against a running ChatServer, logs
+ * them in, spreads them over rooms and sends room messages at a fixed total rate.
+ *
+ *   java -cp target/classes chatload.LoadGenerator [--host=localhost] [--port=5555]
+ *        [--transport=virtual|nio] [--io-threads=2] [--clients=1000] [--rooms=50]
+ *        [--rate=2000] [--message-bytes=64] [--warmup=5] [--duration=30]
+ *        [--connect-concurrency=64] [--binary=false]
+ *
+ * Each message carries the time it was scheduled to be sent, and every member of the room
+ * that receives it records receive time minus that. Timing from the schedule rather than the
+ * actual write means a stalled server shows up as latency instead of as fewer samples.
+ * Only messages scheduled inside the measured window, after warm-up, are counted.
+ */
+public class LoadGenerator {
+
+    final LoadConfig config;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final ConcurrentHashMap<String, Integer> errorSamples = new ConcurrentHashMap<>();
+    private final List<SimClient> ready = new ArrayList<>();
+    private final CountDownLatch settled;
+    private final Semaphore handshakes;
+    private final LongAdder failed = new LongAdder();
+    private volatile long windowStart = Long.MAX_VALUE;
+    private volatile long windowEnd = Long.MAX_VALUE;
+    private volatile boolean stopping;
+
+    LoadGenerator(LoadConfig config) {
+        this.config = config;
+        this.settled = new CountDownLatch(config.clients);
+        this.handshakes = new Semaphore(config.connectConcurrency);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator run = new LoadGenerator(LoadConfig.fromArgs(args));
+        run.run();
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        ClientDriver driver = config.transport == LoadConfig.Transport.NIO ? new NioDriver(this) : new VirtualDriver(this);
+
+        System.out.printf("connecting %d %s clients to %s:%d, %d rooms%s%n", config.clients, config.transport,
+                config.host, config.port, config.rooms, config.binary ? ", BIN1" : "");
+        long start = System.nanoTime();
+        for (int i = 0; i < config.clients; i++) {
+            handshakes.acquire();
+            try {
+                driver.connect(i);
+            } catch (IOException e) {
+                error("connect: " + e.getMessage());
+                failed.increment();
+                handshakes.release();
+                settled.countDown();
+            }
+        }
+        if (!settled.await(60, TimeUnit.SECONDS)) System.out.println("some logins did not finish within 60 s");
+        double connectSeconds = (System.nanoTime() - start) / 1e9;
+        SimClient[] clients;
+        synchronized (ready) {
+            clients = ready.toArray(new SimClient[0]);
+        }
+        System.out.printf("logged in and joined: %d of %d in %.2f s (%.0f logins/s), %d failed%n",
+                clients.length, config.clients, connectSeconds, clients.length / connectSeconds, failed.sum());
+        if (clients.length == 0) return;
+
+        int[] roomSize = new int[config.rooms];
+        for (SimClient c : clients) roomSize[c.room]++;
+
+        long[] measured = pace(clients, roomSize);
+        long sent = measured[0];
+        long expected = measured[1];
+
+        // let in-flight messages land before reporting
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (delivered.sum() < expected && System.nanoTime() < drainDeadline) Thread.sleep(10);
+        stopping = true;
+
+        report(sent, expected);
+        driver.shutdown();
+    }
+
+    // Sends at the configured rate, round-robin over the clients, until the measured window
+    // ends. Returns the messages scheduled inside the window and the deliveries they should cause.
+    private long[] pace(SimClient[] clients, int[] roomSize) {
+        long interval = TimeUnit.SECONDS.toNanos(1) / config.rate;
+        long begin = System.nanoTime();
+        windowStart = begin + TimeUnit.SECONDS.toNanos(config.warmupSeconds);
+        windowEnd = windowStart + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        String padding = "x".repeat(Math.max(0, config.messageBytes - 24));
+        System.out.printf("sending %d msgs/s: %d s warm-up, %d s measured%n", config.rate, config.warmupSeconds, config.durationSeconds);
+
+        long sent = 0;
+        long expected = 0;
+        for (long k = 0; ; k++) {
+            long scheduled = begin + k * interval;
+            if (scheduled >= windowEnd) break;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            SimClient c = clients[(int) (k % clients.length)];
+            if (!c.isReady()) continue;
+            c.send("MSG:t=" + scheduled + "|" + padding);
+            if (scheduled >= windowStart) {
+                sent++;
+                expected += roomSize[c.room];
+            }
+        }
+        return new long[] {sent, expected};
+    }
+
+    private void report(long sent, long expected) {
+        double seconds = config.durationSeconds;
+        LatencyHistogram.Snapshot s = latency.snapshot();
+        System.out.printf("sent:      %d msgs (%.0f msgs/s)%n", sent, sent / seconds);
+        System.out.printf("delivered: %d of %d expected (%.0f deliveries/s, %.2f%%)%n",
+                delivered.sum(), expected, delivered.sum() / seconds, expected == 0 ? 0 : 100.0 * delivered.sum() / expected);
+        System.out.printf("latency:   p50 %.2f ms  p90 %.2f ms  p99 %.2f ms  p99.9 %.2f ms  max %.2f ms%n",
+                s.getP50Micros() / 1e3, s.getP90Micros() / 1e3, s.getP99Micros() / 1e3, s.getP999Micros() / 1e3, s.getMaxMicros() / 1e3);
+        System.out.printf("errors:    %d%n", errors.sum());
+        errorSamples.forEach((e, n) -> System.out.printf("  %6d x %s%n", n, e));
+    }
+
+    // ---- callbacks from the clients ----
+
+    void ready(SimClient c) {
+        synchronized (ready) {
+            ready.add(c);
+        }
+        handshakes.release();
+        settled.countDown();
+    }
+
+    void failed(SimClient c, String reason) {
+        error("login: " + reason);
+        failed.increment();
+        handshakes.release();
+        settled.countDown();
+    }
+
+    void error(String what) {
+        errors.increment();
+        if (errorSamples.size() < 20) errorSamples.merge(what, 1, Integer::sum);
+        else errorSamples.computeIfPresent(what, (k, n) -> n + 1);
+    }
+
+    boolean stopping() {
+        return stopping;
+    }
+
+    // MSG:<ts>:<room>:<user>:t=<scheduled nanos>|<padding>
+    void received(String line) {
+        long now = System.nanoTime();
+        int t = line.indexOf(":t=");
+        if (t < 0) return;
+        int end = line.indexOf('|', t);
+        if (end < 0) return;
+        long scheduled = Long.parseLong(line, t + 3, end, 10);
+        if (scheduled < windowStart || scheduled >= windowEnd) return;
+        latency.record(now - scheduled);
+        delivered.increment();
+    }
+}
@@ -0,0 +1,188 @@
+package chatload;
+
+import chatproto.Wire;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Every client is a non-blocking channel on one of a few selector threads. Writers only queue
+// and flag the client; the selector thread does all socket I/O.
+class NioDriver implements ClientDriver {
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private final LoadGenerator run;
+    private final InetSocketAddress address;
+    private final Worker[] workers;
+
+    NioDriver(LoadGenerator run) throws IOException {
+        this.run = run;
+        this.address = new InetSocketAddress(run.config.host, run.config.port);
+        workers = new Worker[run.config.ioThreads];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            Thread.ofPlatform().daemon().name("load-io-" + i).start(workers[i]);
+        }
+    }
+
+    @Override
+    public SimClient connect(int id) throws IOException {
+        SocketChannel ch = SocketChannel.open(address);
+        ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        ch.configureBlocking(false);
+        Client c = new Client(id, ch, workers[id % workers.length]);
+        c.worker.register(c);
+        c.start();
+        return c;
+    }
+
+    @Override
+    public void shutdown() {
+        for (Worker w : workers) {
+            try { w.selector.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private static class Worker implements Runnable {
+        final Selector selector;
+        final ConcurrentLinkedQueue<Client> registrations = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Client> dirty = new ConcurrentLinkedQueue<>();
+
+        Worker() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(Client c) {
+            registrations.add(c);
+            selector.wakeup();
+        }
+
+        void flag(Client c) {
+            dirty.add(c);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    Client c;
+                    while ((c = registrations.poll()) != null) {
+                        c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+                        c.flush();
+                    }
+                    while ((c = dirty.poll()) != null) c.flush();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Client k = (Client) key.attachment();
+                        if (key.isValid() && key.isReadable()) k.onReadable();
+                        if (key.isValid() && key.isWritable()) k.flush();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (selector.isOpen()) e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private class Client extends SimClient {
+        final SocketChannel channel;
+        final Worker worker;
+        final ConcurrentLinkedQueue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean flagged = new AtomicBoolean();
+        final ByteBuffer readBuf = ByteBuffer.allocate(READ_BUFFER);
+        SelectionKey key;
+
+        Client(int id, SocketChannel channel, Worker worker) {
+            super(id, run);
+            this.channel = channel;
+            this.worker = worker;
+        }
+
+        @Override
+        void write(ByteBuffer bytes) {
+            outbox.add(bytes);
+            if (flagged.compareAndSet(false, true)) worker.flag(this);
+        }
+
+        @Override
+        void close() {
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+
+        // Selector thread only. A client flagged before its registration was processed is
+        // flushed right after registering.
+        void flush() {
+            if (key == null) return;
+            flagged.set(false);
+            if (!key.isValid()) return;
+            try {
+                ByteBuffer b;
+                while ((b = outbox.peek()) != null) {
+                    channel.write(b);
+                    if (b.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    outbox.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                closed(e.getMessage());
+            }
+        }
+
+        void onReadable() {
+            try {
+                if (channel.read(readBuf) < 0) {
+                    closed("closed by server");
+                    return;
+                }
+            } catch (IOException e) {
+                closed(e.getMessage());
+                return;
+            }
+            readBuf.flip();
+            int start = 0;
+            int scanned = 0;
+            while (scanned < readBuf.limit()) {
+                // the client may switch to BIN1 after any line, so re-check per message
+                if (binary) {
+                    int len = Wire.payloadLength(readBuf, start);
+                    int header = Wire.varintSize(len);
+                    if (len < 0 || start + header + len > readBuf.limit()) break;
+                    onLine(Wire.toText(readBuf.slice(start + header, len)));
+                    start += header + len;
+                    scanned = start;
+                } else {
+                    if (readBuf.get(scanned++) != '\n') continue;
+                    int end = scanned - 1;
+                    if (end > start && readBuf.get(end - 1) == '\r') end--;
+                    onLine(new String(readBuf.array(), start, end - start, StandardCharsets.UTF_8));
+                    start = scanned;
+                }
+            }
+            readBuf.position(start);
+            readBuf.compact();
+            if (!readBuf.hasRemaining()) closed("server line longer than " + READ_BUFFER + " bytes");
+        }
+
+        private void closed(String reason) {
+            key.cancel();
+            close();
+            if (!run.stopping()) onClosed(reason);
+        }
+    }
+}
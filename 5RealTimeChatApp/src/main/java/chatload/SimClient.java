@@ -0,0 +1,96 @@
+package chatload;
+
+import chatproto.Wire;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// One simulated user. The transport feeds it every server line (binary frames already turned
+// back into text) and gives it a way to write; the handshake and the latency bookkeeping are
+// the same for every transport.
+abstract class SimClient {
+    private enum State { LOGIN, JOIN, READY, FAILED }
+
+    final int id;
+    final int room;
+    private final LoadGenerator run;
+    private volatile State state = State.LOGIN;
+    // set once the server has answered PROTO:BIN1; the reader switches to frames after that line
+    volatile boolean binary;
+
+    SimClient(int id, LoadGenerator run) {
+        this.id = id;
+        this.room = id % run.config.rooms;
+        this.run = run;
+    }
+
+    // Queues or writes one encoded command; safe to call from the pacer and the reader.
+    abstract void write(ByteBuffer bytes);
+
+    abstract void close();
+
+    void start() {
+        String login = "LOGIN:load-" + id + (run.config.binary ? ":" + Wire.VERSION : "");
+        write(text(login));
+    }
+
+    boolean isReady() {
+        return state == State.READY;
+    }
+
+    void send(String line) {
+        write(binary ? Wire.encodeCommand(line) : text(line));
+    }
+
+    void onLine(String line) {
+        if (line.startsWith("MSG:")) {
+            run.received(line);
+            return;
+        }
+        switch (state) {
+            case LOGIN -> {
+                if (line.equals(Wire.UPGRADE_REPLY)) {
+                    binary = true;
+                } else if (line.startsWith("INFO:Logged in")) {
+                    state = State.JOIN;
+                    send("JOIN:room-" + room);
+                } else if (line.startsWith("ERROR:")) {
+                    fail(line);
+                }
+            }
+            case JOIN -> {
+                if (line.startsWith("INFO:Joined")) {
+                    state = State.READY;
+                    run.ready(this);
+                } else if (line.startsWith("ERROR:")) {
+                    fail(line);
+                }
+            }
+            case READY -> {
+                if (line.startsWith("ERROR:")) run.error(line);
+            }
+            case FAILED -> {}
+        }
+    }
+
+    // Connection lost or refused, at any stage.
+    void onClosed(String reason) {
+        if (state == State.READY) {
+            state = State.FAILED;
+            run.error("disconnected: " + reason);
+        } else {
+            fail(reason);
+        }
+    }
+
+    private void fail(String reason) {
+        if (state == State.FAILED || state == State.READY) return;
+        state = State.FAILED;
+        run.failed(this, reason);
+        close();
+    }
+
+    private static ByteBuffer text(String line) {
+        return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,85 @@
+package chatload;
+
+import chatproto.Wire;
+import chatproto.WireReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+// A blocking socket per client, read by a virtual thread; writes go straight to the socket.
+class VirtualDriver implements ClientDriver {
+    private final LoadGenerator run;
+    private final InetSocketAddress address;
+
+    VirtualDriver(LoadGenerator run) {
+        this.run = run;
+        this.address = new InetSocketAddress(run.config.host, run.config.port);
+    }
+
+    @Override
+    public SimClient connect(int id) throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(address);
+        Client c = new Client(id, socket);
+        Thread.ofVirtual().name("load-" + id).start(c::readLoop);
+        c.start();
+        return c;
+    }
+
+    @Override
+    public void shutdown() {}
+
+    private class Client extends SimClient {
+        private final Socket socket;
+        private final OutputStream out;
+
+        Client(int id, Socket socket) throws IOException {
+            super(id, run);
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        @Override
+        void write(ByteBuffer bytes) {
+            try {
+                synchronized (out) {
+                    out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                }
+            } catch (IOException e) {
+                onClosed(e.getMessage());
+            }
+        }
+
+        @Override
+        void close() {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+
+        void readLoop() {
+            String reason = "closed by server";
+            try {
+                WireReader in = new WireReader(socket.getInputStream());
+                while (true) {
+                    String line;
+                    if (binary) {
+                        ByteBuffer frame = in.readFrame();
+                        if (frame == null) break;
+                        line = Wire.toText(frame);
+                    } else {
+                        line = in.readLine();
+                        if (line == null) break;
+                    }
+                    onLine(line);
+                }
+            } catch (IOException | RuntimeException e) {
+                reason = String.valueOf(e.getMessage());
+            }
+            if (!run.stopping()) onClosed(reason);
+            close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package chatproto;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Optional deflate compression, raw (no zlib header) in both places it is used.
+ *
+ * Chat stream: a client asks with LOGIN:<name>:DEFLATE, or LOGIN:<name>:BIN1:DEFLATE. The server
+ * answers PROTO:DEFLATE in the current encoding and compresses everything it sends after that
+ * as one deflate stream, sync-flushed after every write, so the client inflates from there on
+ * with a single Inflater. Only the server -> client direction is compressed. A server with
+ * compression off does not answer, and the client sees INFO:Logged in without it.
+ *
+ * File transfers: UPLOAD, UPLOADHASH and DOWNLOAD accept a +deflate suffix on the verb (see
+ * FileTransferServer). The body in that direction is then a finished deflate stream; sizes and
+ * hashes still describe the uncompressed file.
+ */
+public final class Compression {
+    public static final String DEFLATE = "DEFLATE";
+    public static final String DEFLATE_REPLY = "PROTO:" + DEFLATE;
+    public static final String FILE_OPTION = "+deflate";
+
+    // formats that gain nothing from another deflate pass
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "br",
+            "jar", "apk", "docx", "xlsx", "pptx", "odt", "epub",
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "mp4", "m4v", "mov", "mkv", "webm", "avi", "pdf");
+
+    private Compression() {}
+
+    public static Deflater newDeflater(int level) {
+        return new Deflater(level, true);
+    }
+
+    public static Inflater newInflater() {
+        return new Inflater(true);
+    }
+
+    // True if the file is already compressed, judged by its extension or, failing that, by the
+    // magic number at the start of its content. head may hold fewer bytes than a full signature.
+    public static boolean isCompressed(String filename, byte[] head, int len) {
+        int dot = filename.lastIndexOf('.');
+        if (dot >= 0 && COMPRESSED_EXTENSIONS.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT))) return true;
+        return startsWith(head, len, 0x50, 0x4b, 0x03, 0x04)            // zip and its derivatives
+                || startsWith(head, len, 0x1f, 0x8b)                    // gzip
+                || startsWith(head, len, 0x28, 0xb5, 0x2f, 0xfd)        // zstd
+                || startsWith(head, len, 0xfd, '7', 'z', 'X', 'Z')      // xz
+                || startsWith(head, len, 'B', 'Z', 'h')                 // bzip2
+                || startsWith(head, len, '7', 'z', 0xbc, 0xaf)          // 7z
+                || startsWith(head, len, 'R', 'a', 'r', '!')
+                || startsWith(head, len, 0xff, 0xd8, 0xff)              // jpeg
+                || startsWith(head, len, 0x89, 'P', 'N', 'G')
+                || startsWith(head, len, 'G', 'I', 'F', '8')
+                || startsWith(head, len, 'I', 'D', '3')                 // mp3
+                || startsWith(head, len, 'O', 'g', 'g', 'S')
+                || startsWith(head, len, '%', 'P', 'D', 'F')
+                || (len >= 8 && head[4] == 'f' && head[5] == 't' && head[6] == 'y' && head[7] == 'p');  // mp4, mov, heic
+    }
+
+    private static boolean startsWith(byte[] head, int len, int... magic) {
+        if (len < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((head[i] & 0xff) != magic[i]) return false;
+        }
+        return true;
+    }
+}
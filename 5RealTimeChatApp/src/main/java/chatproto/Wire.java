@@ -0,0 +1,135 @@
+package chatproto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Binary framing (version BIN1), the alternative to colon-delimited text lines.
+ *
+ *   frame  := varint(payload length) payload
+ *   payload:= type byte, then the fields of that type
+ *   string := varint(UTF-8 length) UTF-8 bytes
+ *
+ *   type  client -> server        server -> client
+ *   LINE  line                    line                  any command / reply in its text form
+ *   MSG   text                    ts, room, user, text
+ *   PM    target, text            ts, from, text
+ *
+ * A client asks for it with LOGIN:<name>:BIN1 before joining a room. The server answers with
+ * the text line PROTO:BIN1 and uses frames in both directions from then on; the client must
+ * not send anything else until it has read that line. Fields may contain colons.
+ */
+public final class Wire {
+    public static final String VERSION = "BIN1";
+    public static final String UPGRADE_REPLY = "PROTO:" + VERSION;
+
+    public static final byte LINE = 1;
+    public static final byte MSG = 2;
+    public static final byte PM = 3;
+
+    public static final int MAX_FRAME = 64 * 1024;
+
+    private Wire() {}
+
+    // Whole frame including the length prefix, ready to write.
+    public static ByteBuffer encode(byte type, String... fields) {
+        byte[][] bytes = new byte[fields.length][];
+        int payload = 1;
+        for (int i = 0; i < fields.length; i++) {
+            bytes[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            payload += varintSize(bytes[i].length) + bytes[i].length;
+        }
+        byte[] out = new byte[varintSize(payload) + payload];
+        int p = putVarint(out, 0, payload);
+        out[p++] = type;
+        for (byte[] b : bytes) {
+            p = putVarint(out, p, b.length);
+            System.arraycopy(b, 0, out, p, b.length);
+            p += b.length;
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    // Client side: a command typed in text form, sent as the matching frame.
+    public static ByteBuffer encodeCommand(String line) {
+        if (line.startsWith("MSG:")) return encode(MSG, line.substring(4));
+        if (line.startsWith("PM:")) {
+            int colon = line.indexOf(':', 3);
+            if (colon > 0) return encode(PM, line.substring(3, colon), line.substring(colon + 1));
+        }
+        return encode(LINE, line);
+    }
+
+    // Client side: a server frame in the equivalent text form, for display and logging.
+    public static String toText(ByteBuffer payload) {
+        byte type = payload.get();
+        return switch (type) {
+            case MSG -> "MSG:" + string(payload) + ":" + string(payload) + ":" + string(payload) + ":" + string(payload);
+            case PM -> "PM:" + string(payload) + ":" + string(payload) + ":" + string(payload);
+            default -> string(payload);
+        };
+    }
+
+    // Payload length of the frame starting at pos, or -1 if its prefix has not fully arrived.
+    public static int payloadLength(ByteBuffer buf, int pos) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos >= buf.limit()) return -1;
+            byte b = buf.get(pos++);
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                if (value < 0 || value > MAX_FRAME) throw new IllegalArgumentException("Frame too long: " + value);
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed frame length");
+    }
+
+    public static String string(ByteBuffer buf) {
+        int len = getVarint(buf);
+        if (len > buf.remaining()) throw new IllegalArgumentException("Truncated field");
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+        } else {
+            byte[] b = new byte[len];
+            buf.get(buf.position(), b);
+            s = new String(b, StandardCharsets.UTF_8);
+        }
+        buf.position(buf.position() + len);
+        return s;
+    }
+
+    public static int varintSize(int value) {
+        int n = 1;
+        while ((value >>>= 7) != 0) n++;
+        return n;
+    }
+
+    public static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7f) != 0) {
+            buf.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static int putVarint(byte[] out, int p, int value) {
+        while ((value & ~0x7f) != 0) {
+            out[p++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out[p++] = (byte) value;
+        return p;
+    }
+
+    public static int getVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
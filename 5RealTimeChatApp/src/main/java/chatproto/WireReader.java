@@ -0,0 +1,125 @@
+package chatproto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*
+ * Reads text lines or binary frames from one stream. Unlike a BufferedReader it can switch
+ * from lines to frames, or to an inflated stream, mid-stream without losing bytes it has
+ * already buffered.
+ */
+public class WireReader {
+    private final InputStream in;
+    private byte[] buf = new byte[8192];
+    private int start;
+    private int end;
+    // set once the server has switched to deflate; compressed holds input the inflater has not used
+    private Inflater inflater;
+    private byte[] compressed;
+
+    public WireReader(InputStream in) {
+        this.in = in;
+    }
+
+    // Receives a line in place, without its \n or \r\n; the bytes are only valid during the call.
+    public interface LineConsumer {
+        void accept(byte[] buf, int off, int len);
+    }
+
+    // Next line without its \n or \r\n, or null at end of stream.
+    public String readLine() throws IOException {
+        String[] line = new String[1];
+        return readLine((b, off, len) -> line[0] = new String(b, off, len, StandardCharsets.UTF_8)) ? line[0] : null;
+    }
+
+    // Hands the next line to sink straight from the read buffer; false at end of stream.
+    public boolean readLine(LineConsumer sink) throws IOException {
+        int scanned = start;
+        while (true) {
+            for (; scanned < end; scanned++) {
+                if (buf[scanned] != '\n') continue;
+                int stop = scanned > start && buf[scanned - 1] == '\r' ? scanned - 1 : scanned;
+                int from = start;
+                start = scanned + 1;
+                sink.accept(buf, from, stop - from);
+                return true;
+            }
+            int done = scanned - start;
+            if (!fill()) return false;
+            scanned = start + done;
+        }
+    }
+
+    // Payload of the next frame (type byte first), valid until the next read; null at end of stream.
+    public ByteBuffer readFrame() throws IOException {
+        while (true) {
+            int len;
+            try {
+                len = Wire.payloadLength(ByteBuffer.wrap(buf, start, end - start), start);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+            if (len >= 0) {
+                int header = Wire.varintSize(len);
+                if (end - start >= header + len) {
+                    ByteBuffer payload = ByteBuffer.wrap(buf, start + header, len).slice();
+                    start += header + len;
+                    return payload;
+                }
+            }
+            if (!fill()) return null;
+        }
+    }
+
+    // Everything after the last line or frame returned is a deflate stream (see Compression).
+    // Bytes already buffered past that point are handed to the inflater first.
+    public void startInflating() {
+        if (inflater != null) return;
+        inflater = Compression.newInflater();
+        compressed = new byte[Math.max(8192, end - start)];
+        System.arraycopy(buf, start, compressed, 0, end - start);
+        inflater.setInput(compressed, 0, end - start);
+        end = start;
+    }
+
+    // Reads more bytes, compacting or growing the buffer first; false at end of stream.
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buf.length) {
+            if (buf.length > Wire.MAX_FRAME) throw new IOException("Line or frame too long");
+            byte[] bigger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, end);
+            buf = bigger;
+        }
+        int n = read(buf, end, buf.length - end);
+        if (n < 0) return false;
+        end += n;
+        return true;
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (inflater == null) return in.read(b, off, len);
+        try {
+            while (true) {
+                int n = inflater.inflate(b, off, len);
+                if (n > 0) return n;
+                if (inflater.finished()) return -1;
+                if (inflater.needsInput()) {
+                    int r = in.read(compressed, 0, compressed.length);
+                    if (r < 0) return -1;
+                    inflater.setInput(compressed, 0, r);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Bad deflate stream: " + e.getMessage());
+        }
+    }
+}
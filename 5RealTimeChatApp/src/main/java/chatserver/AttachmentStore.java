@@ -0,0 +1,127 @@
+package chatserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Content-addressed blobs under <root>/blobs/<2 hex>/<sha-256>, one copy per distinct content.
+// Each FileMeta pointing at a blob holds one reference; a blob is deleted when its last reference goes.
+class AttachmentStore {
+    private final Path blobs;
+    private final Path tmp;
+    private final ConcurrentHashMap<String, Integer> refs = new ConcurrentHashMap<>();
+
+    AttachmentStore(Path root) throws IOException {
+        this.blobs = root.resolve("blobs");
+        this.tmp = root.resolve("tmp");
+        Files.createDirectories(blobs);
+        Files.createDirectories(tmp);
+        // leftovers of uploads interrupted by a crash or restart
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(tmp)) {
+            for (Path p : parts) Files.deleteIfExists(p);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] digest) {
+        return HexFormat.of().formatHex(digest);
+    }
+
+    static boolean isHash(String s) {
+        if (s.length() != 64) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    Path path(String hash) {
+        return blobs.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    Path newTempFile() throws IOException {
+        return Files.createTempFile(tmp, "upload", ".part");
+    }
+
+    // Adds a reference to an existing blob; false if no blob with this hash is stored.
+    boolean retainIfPresent(String hash) {
+        boolean[] found = new boolean[1];
+        refs.computeIfPresent(hash, (h, n) -> {
+            found[0] = true;
+            return n + 1;
+        });
+        return found[0];
+    }
+
+    // Moves a fully written temp file into place (or discards it if the content is already
+    // stored) and takes one reference.
+    void commit(Path temp, String hash) {
+        refs.compute(hash, (h, n) -> {
+            try {
+                Path dest = path(h);
+                if (n == null && !Files.exists(dest)) {
+                    Files.createDirectories(dest.getParent());
+                    Files.move(temp, dest, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return n == null ? 1 : n + 1;
+        });
+    }
+
+    void release(String hash) {
+        refs.computeIfPresent(hash, (h, n) -> {
+            if (n > 1) return n - 1;
+            try {
+                Files.deleteIfExists(path(h));
+            } catch (IOException ignored) {}
+            return null;
+        });
+    }
+
+    int references(String hash) {
+        return refs.getOrDefault(hash, 0);
+    }
+
+    // Re-takes a reference recorded before a restart; the blob is already on disk.
+    void restore(String hash) {
+        refs.merge(hash, 1, Integer::sum);
+    }
+
+    // Deletes blobs nobody references. Safe to run alongside uploads: each blob is checked
+    // under the same per-hash lock that commit() uses.
+    void collectGarbage() throws IOException {
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(blobs)) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(shard)) {
+                    for (Path blob : files) {
+                        String hash = blob.getFileName().toString();
+                        refs.computeIfAbsent(hash, h -> {
+                            try {
+                                Files.deleteIfExists(blob);
+                            } catch (IOException ignored) {}
+                            return null;
+                        });
+                    }
+                }
+            }
+        }
+    }
+}
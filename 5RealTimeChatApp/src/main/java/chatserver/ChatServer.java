@@ -2,84 +2,466 @@ package chatserver;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import javax.crypto.spec.SecretKeySpec;
 
 public class ChatServer {
-    private final int port;
-    private final ServerSocket serverSocket;
-    private final ExecutorService pool = Executors.newCachedThreadPool();
-    private final ConcurrentHashMap<String, CopyOnWriteArraySet<ClientHandler>> rooms = new ConcurrentHashMap<>();
+    // pause after a failed accept, so a lasting error such as running out of descriptors does not spin
+    private static final long ACCEPT_BACKOFF_MILLIS = 50;
+
+    private final ServerConfig config;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService pool;
+    // Room members are concurrent hash sets so a removal does not copy the whole room;
+    // userRooms is the reverse index that lets a disconnect touch only the rooms the user was in.
+    private final ConcurrentHashMap<String, Set<ClientHandler>> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> userRooms = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, ClientHandler> users = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, FileMeta> files = new ConcurrentHashMap<>();
-
-    private final Path filesDir = Paths.get("server_files");
-    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // every open connection, logged in or not, so a drain can reach all of them
+    private final Set<ClientHandler> connections = ConcurrentHashMap.newKeySet();
+    // rooms with a roster resync scheduled after clients resumed into them
+    private final Set<String> resyncPending = ConcurrentHashMap.newKeySet();
+
+    private final RosterBatcher roster;
+    private final AttachmentStore attachments;
+    private final FileIndex fileIndex;
+    private final FileTransferServer fileServer;
+    private final MessageHistory history;
+    private final Cluster cluster;
+    private final ServerMetrics metrics = new ServerMetrics(this);
+    private final RateLimiter userLimiter;
+    private final RateLimiter.Rooms roomLimits;
+    private final SessionTokens sessions;
+    private volatile boolean draining;
+
+    private final Path filesDir;
 
     public ChatServer(int port) throws IOException {
-        this.port = port;
-        serverSocket = new ServerSocket(port);
+        this(portConfig(port));
+    }
+
+    public ChatServer(ServerConfig config) throws IOException {
+        this.config = config;
+        // read before any port is bound, so a node without the shared key fails cleanly
+        SecretKeySpec clusterKey = config.clusterPort > 0 ? Cluster.loadKey(Path.of(config.clusterKeyFile)) : null;
+        pool = config.transport == ServerConfig.Transport.VIRTUAL
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newCachedThreadPool();
+        userLimiter = RateLimiter.of(config.userRate, config.userBurst);
+        RateLimiter roomLimiter = RateLimiter.of(config.roomRate, config.roomBurst);
+        roomLimits = roomLimiter == null ? null : new RateLimiter.Rooms(roomLimiter);
+        roster = config.rosterBatchMillis > 0 ? new RosterBatcher(this, config.rosterBatchMillis) : null;
+        history = config.history ? new MessageHistory(config) : null;
+        filesDir = Paths.get(config.filesDir);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.port), config.acceptBacklog);
 
         if (!Files.exists(filesDir)) Files.createDirectories(filesDir);
+        sessions = new SessionTokens(Paths.get(config.sessionKeyFile));
+        attachments = new AttachmentStore(filesDir);
+        fileIndex = new FileIndex(filesDir.resolve("files.idx"));
+        restoreFiles();
+
+        fileServer = new FileTransferServer(this, config, attachments);
+        Thread.ofPlatform().name("file-transfer").start(fileServer);
+        System.out.println("FileTransferServer started on port " + config.filePort);
+
+        metrics.registerMBean(serverChannel.socket().getLocalPort());
+        if (config.statsPort > 0) {
+            metrics.startEndpoint(config.statsPort);
+            System.out.println("Stats on 127.0.0.1:" + config.statsPort);
+        }
+
+        cluster = clusterKey != null ? new Cluster(this, config, clusterKey) : null;
+        if (cluster != null) System.out.println("Cluster node " + config.nodeId + " listening on port " + config.clusterPort);
+        System.out.println("ChatServer started on port " + config.port + " (" + config.transport + ")");
+    }
+
+    // Startup cost is proportional to the index, not to server_files; the sweep for blobs left
+    // unreferenced by a crash runs in the background.
+    private void restoreFiles() throws IOException {
+        fileIndex.replay(meta -> files.put(meta.id, meta), files::remove, attachments);
+        for (FileMeta meta : files.values()) attachments.restore(meta.hash);
+        if (fileIndex.needsCompaction()) fileIndex.compact(files.values());
+        System.out.println("Restored " + files.size() + " files from index");
 
-        new Thread(new FileTransferServer(6000)).start();
-        System.out.println("FileTransferServer started on port 6000");
-        System.out.println("ChatServer started on port " + port);
+        Thread.ofPlatform().daemon().name("blob-gc").start(() -> {
+            try {
+                attachments.collectGarbage();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // Called when accept() on listener threw: false once the listener is closed (or the thread
+    // interrupted), otherwise logs the error and backs off before the caller tries again.
+    static boolean retryAccept(ServerSocketChannel listener, IOException e) {
+        if (!listener.isOpen()) return false;
+        System.err.println("Accept failed: " + e.getMessage());
+        try {
+            Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private static ServerConfig portConfig(int port) {
+        ServerConfig c = new ServerConfig();
+        c.port = port;
+        return c;
     }
 
     public void start() {
         try {
-            while (true) {
-                Socket client = serverSocket.accept();
-                ClientHandler handler = new ClientHandler(client, this);
+            if (config.transport == ServerConfig.Transport.NIO) {
+                new NioTransport(this, serverChannel, config.ioThreads).acceptLoop();
+                return;
+            }
+            // as in NioTransport.acceptLoop(), one failed client does not stop the loop
+            while (serverChannel.isOpen()) {
+                SocketChannel client;
+                try {
+                    client = serverChannel.accept();
+                } catch (IOException e) {
+                    if (!retryAccept(serverChannel, e)) return;
+                    continue;
+                }
+                try {
+                    configure(client);
+                } catch (IOException e) {
+                    try {
+                        client.close();
+                    } catch (IOException ignored) {
+                    }
+                    continue;
+                }
+                ClientHandler handler = new ClientHandler(client.socket(), this);
                 pool.submit(handler);
             }
         } catch (IOException e) {
+            // the NIO transport could not open its selectors
             e.printStackTrace();
         }
     }
 
-    public boolean registerUser(String username, ClientHandler handler) {
-        return users.putIfAbsent(username, handler) == null;
+    // Stops accepting, gives every client a randomized reconnect delay and a resume token, lets
+    // each writer flush what is already queued and close, and cuts off whatever is still open at
+    // the deadline. Departures during a drain are not announced: the whole server is leaving, and
+    // the clients that resume keep the rosters they have.
+    public void drain(long deadlineMillis) {
+        if (draining) return;
+        draining = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        System.out.println("Draining " + connections.size() + " connections");
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {
+        }
+        fileServer.close();
+
+        long resumeExpires = System.currentTimeMillis() + config.resumeWindowMillis;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (ClientHandler h : connections) {
+            h.drain(config.reconnectSpreadMillis > 0 ? random.nextLong(config.reconnectSpreadMillis) : 0, resumeExpires);
+        }
+        try {
+            while ((!connections.isEmpty() || fileServer.stats().getActiveTransfers() > 0)
+                    && System.nanoTime() - deadline < 0) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!connections.isEmpty()) System.out.println("Drain deadline reached, closing " + connections.size() + " connections");
+        for (ClientHandler h : connections) h.abort();
+
+        if (history != null) history.close();
+        synchronized (fileIndex) {
+            try {
+                fileIndex.close();
+            } catch (IOException e) {
+                System.err.println("File index close failed: " + e.getMessage());
+            }
+        }
+        pool.shutdown();
+        System.out.println("Drained");
+    }
+
+    // Per-deployment TCP options for an accepted client socket.
+    void configure(SocketChannel ch) throws IOException {
+        ch.setOption(StandardSocketOptions.TCP_NODELAY, config.tcpNoDelay);
+        ch.setOption(StandardSocketOptions.SO_KEEPALIVE, config.keepAlive);
+        if (config.sendBufferBytes > 0) ch.setOption(StandardSocketOptions.SO_SNDBUF, config.sendBufferBytes);
+        if (config.receiveBufferBytes > 0) ch.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferBytes);
+    }
+
+    public FileTransferStats fileTransferStats() {
+        return fileServer.stats();
+    }
+
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    ServerConfig config() {
+        return config;
+    }
+
+    // null when the limit is off
+    RateLimiter userLimiter() {
+        return userLimiter;
+    }
+
+    RateLimiter.Rooms roomLimits() {
+        return roomLimits;
+    }
+
+    Collection<ClientHandler> handlers() {
+        return users.values();
+    }
+
+    int roomCount() {
+        return rooms.size();
+    }
+
+    SessionTokens sessions() {
+        return sessions;
+    }
+
+    void opened(ClientHandler handler) {
+        connections.add(handler);
+    }
+
+    void closed(ClientHandler handler) {
+        connections.remove(handler);
+    }
+
+    void execute(Runnable task) {
+        pool.execute(task);
+    }
+
+    // In cluster mode the name must also be free on every other node; its owner node decides,
+    // so the result may arrive later on another thread. It fails with an IllegalStateException
+    // when that node is unreachable.
+    public CompletableFuture<Boolean> registerUser(String username, ClientHandler handler) {
+        if (users.putIfAbsent(username, handler) != null) return CompletableFuture.completedFuture(false);
+        if (cluster == null) return CompletableFuture.completedFuture(true);
+        return cluster.claim(username).whenComplete((claimed, e) -> {
+            if (claimed == null || !claimed) users.remove(username, handler);
+        });
     }
 
     public void unregisterUser(String username) {
-        users.remove(username);
-        rooms.values().forEach(set -> set.removeIf(ch -> username.equals(ch.getUsername())));
+        ClientHandler handler = users.remove(username);
+        Set<String> joined = userRooms.remove(username);
+        if (handler != null && cluster != null) cluster.release(username);
+        if (handler == null || joined == null) return;
+        for (String room : joined) {
+            if (removeMember(room, handler) && cluster != null) cluster.memberLeft(room, username);
+        }
+    }
+
+    public boolean isOnline(String username) {
+        return users.containsKey(username);
+    }
+
+    public Set<String> roomsOf(String username) {
+        Set<String> joined = userRooms.get(username);
+        return joined == null ? Set.of() : Collections.unmodifiableSet(joined);
     }
 
     public void joinRoom(String room, ClientHandler client) {
-        rooms.computeIfAbsent(room, r -> new CopyOnWriteArraySet<>()).add(client);
-        broadcastInfo(room, client.getUsername() + " joined the room.");
-        sendRoomUserList(room);
+        joinRoom(room, client, 0, -1);
+    }
+
+    // The joiner gets one USERLIST snapshot; everyone else only sees USERJOIN/USERLEAVE deltas.
+    // With history on, up to `last` stored messages (or those since sinceMillis, if >= 0) are
+    // replayed first. Replay and the member add happen under the room log's lock, which every
+    // broadcast also holds, so no message is missed or delivered twice around the join.
+    public void joinRoom(String room, ClientHandler client, int last, long sinceMillis) {
+        if (history != null && (last > 0 || sinceMillis >= 0)) {
+            int limit = Math.min(last > 0 ? last : history.maxReplay(), history.maxReplay());
+            try {
+                RoomLog log = history.lock(room);
+                try {
+                    for (Frame f : log.read(limit, sinceMillis)) client.send(f);
+                    addMember(room, client);
+                } finally {
+                    log.unlock();
+                }
+            } catch (IOException e) {
+                client.send("ERROR:History unavailable");
+                addMember(room, client);
+            }
+        } else {
+            addMember(room, client);
+        }
+        String name = client.getUsername();
+        if (name != null) userRooms.computeIfAbsent(name, u -> ConcurrentHashMap.newKeySet()).add(room);
+
+        if (cluster != null) {
+            // the room's owner node sends the INFO, USERJOIN and the joiner's USERLIST
+            if (name != null) cluster.memberJoined(room, name);
+            return;
+        }
+        broadcastInfo(room, name + " joined the room.");
+        sendRoomUserList(room, client);
+        if (roster != null) {
+            roster.joined(room, name);
+        } else {
+            sendToRoom(room, Frame.of("USERJOIN:" + name), client);
+        }
+    }
+
+    private void addMember(String room, ClientHandler client) {
+        rooms.compute(room, (r, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+                if (cluster != null) cluster.subscribe(room);
+            }
+            set.add(client);
+            return set;
+        });
     }
 
     public void leaveRoom(String room, ClientHandler client) {
-        CopyOnWriteArraySet<ClientHandler> set = rooms.get(room);
-        if (set != null) {
-            set.remove(client);
-            broadcastInfo(room, client.getUsername() + " left the room.");
-            sendRoomUserList(room);
+        if (!removeMember(room, client)) return;
+        String name = client.getUsername();
+        if (name != null) {
+            userRooms.computeIfPresent(name, (u, joined) -> {
+                joined.remove(room);
+                return joined.isEmpty() ? null : joined;
+            });
+        }
+
+        if (cluster != null) {
+            if (name != null) cluster.memberLeft(room, name);
+            return;
+        }
+        if (draining) return;
+        broadcastInfo(room, name + " left the room.");
+        if (roster != null) {
+            roster.left(room, name);
+        } else {
+            sendToRoom(room, Frame.of("USERLEAVE:" + name), null);
+        }
+    }
+
+    // Puts a resuming client back in its room quietly: no INFO, no USERJOIN and no USERLIST for
+    // the joiner. Members that came back in the meantime already list it. Once the reconnect
+    // spread has passed, every member gets one shared USERLIST so that names which never came
+    // back drop out. In cluster mode the owner node keeps the roster, so this is a plain join.
+    void resumeRoom(String room, ClientHandler client) {
+        if (cluster != null) {
+            joinRoom(room, client);
+            return;
+        }
+        addMember(room, client);
+        userRooms.computeIfAbsent(client.getUsername(), u -> ConcurrentHashMap.newKeySet()).add(room);
+        if (resyncPending.add(room)) {
+            CompletableFuture.runAsync(() -> {
+                resyncPending.remove(room);
+                resyncRoster(room);
+            }, CompletableFuture.delayedExecutor(Math.max(config.reconnectSpreadMillis, 1000), TimeUnit.MILLISECONDS, pool));
+        }
+    }
+
+    private void resyncRoster(String room) {
+        Set<ClientHandler> set = rooms.get(room);
+        if (set == null) return;
+        StringJoiner names = new StringJoiner(",", "USERLIST:", "");
+        for (ClientHandler ch : set) {
+            if (ch.getUsername() != null) names.add(ch.getUsername());
+        }
+        sendToRoom(room, Frame.of(names.toString()), null);
+    }
+
+    // Empty rooms are dropped from the map; compute() keeps that atomic with a concurrent join.
+    private boolean removeMember(String room, ClientHandler client) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(room, (r, set) -> {
+            removed[0] = set.remove(client);
+            if (!set.isEmpty()) return set;
+            if (cluster != null) cluster.unsubscribe(room);
+            if (roomLimits != null) roomLimits.remove(room);
+            return null;
+        });
+        return removed[0];
+    }
+
+    void sendToRoom(String room, Frame frame, ClientHandler except) {
+        Set<ClientHandler> set = rooms.get(room);
+        if (set == null) return;
+        for (ClientHandler ch : set) {
+            if (ch != except) ch.send(frame);
         }
     }
 
     public void broadcastToRoom(String room, String username, String text) {
+        if (cluster != null) {
+            // sequenced by the room's owner node, which delivers back here as well
+            cluster.publish(room, Timestamps.now(), username, text);
+            return;
+        }
+        deliverMessage(room, Frame.msg(Timestamps.now(), room, username, text));
+    }
+
+    // Sends a room message to this node's members of the room, logging it first if history is on.
+    void deliverMessage(String room, Frame out) {
         Set<ClientHandler> set = rooms.get(room);
         if (set == null) return;
+        if (history != null) {
+            deliverLogged(room, out);
+            return;
+        }
+        int n = 0;
+        for (ClientHandler ch : set) {
+            ch.send(out);
+            n++;
+        }
+        recordFanOut(out, n);
+    }
 
-        String ts = LocalDateTime.now().format(TS);
-        String out = "MSG:" + ts + ":" + room + ":" + username + ":" + text;
+    // a failed append still delivers: live chat matters more than the stored copy
+    private void deliverLogged(String room, Frame out) {
+        RoomLog log = null;
+        try {
+            log = history.lock(room);
+            history.append(log, System.currentTimeMillis(), out);
+        } catch (IOException e) {
+            System.err.println("History append failed for room " + room + ": " + e.getMessage());
+        }
+        try {
+            int n = 0;
+            for (ClientHandler ch : rooms.getOrDefault(room, Set.of())) {
+                ch.send(out);
+                n++;
+            }
+            recordFanOut(out, n);
+        } finally {
+            if (log != null) log.unlock();
+        }
+    }
 
-        for (ClientHandler ch : set) ch.send(out);
+    // Timed from the frame's creation, which is just before delivery, to save a clock read.
+    private void recordFanOut(Frame out, int recipients) {
+        metrics.fanOut.record(System.nanoTime() - out.createdNanos());
+        metrics.broadcastRecipients.add(recipients);
     }
 
     public void broadcastInfo(String room, String text) {
         Set<ClientHandler> set = rooms.get(room);
         if (set != null) {
-            String out = "INFO:" + text;
+            Frame out = Frame.of("INFO:" + text);
             for (ClientHandler ch : set) ch.send(out);
         }
     }
@@ -87,28 +469,65 @@ public class ChatServer {
     public void sendPrivate(String from, String to, String text) {
         ClientHandler target = users.get(to);
         if (target != null) {
-            String ts = LocalDateTime.now().format(TS);
-            target.send("PM:" + ts + ":" + from + ":" + text);
+            target.send(Frame.pm(Timestamps.now(), from, text));
+        } else if (cluster != null) {
+            cluster.privateMessage(from, to, Timestamps.now(), text);
         }
     }
 
-    public void sendRoomUserList(String room) {
+    // ---- deliveries from the cluster to this node's clients ----
+
+    void deliverLine(String room, String line) {
+        sendToRoom(room, Frame.of(line), null);
+    }
+
+    void deliverToUser(String user, String line) {
+        ClientHandler target = users.get(user);
+        if (target != null) target.send(line);
+    }
+
+    void deliverPrivate(String from, String to, String ts, String text) {
+        ClientHandler target = users.get(to);
+        if (target != null) target.send(Frame.pm(ts, from, text));
+    }
+
+    void evictUser(String user, String reason) {
+        ClientHandler target = users.get(user);
+        if (target != null) target.evict(reason);
+    }
+
+    Collection<String> localUsers() {
+        return users.keySet();
+    }
+
+    void forEachLocalRoom(BiConsumer<String, List<String>> action) {
+        rooms.forEach((room, set) -> {
+            List<String> names = new ArrayList<>();
+            for (ClientHandler ch : set) {
+                if (ch.getUsername() != null) names.add(ch.getUsername());
+            }
+            action.accept(room, names);
+        });
+    }
+
+    public void sendRoomUserList(String room, ClientHandler to) {
         Set<ClientHandler> set = rooms.get(room);
         if (set == null) return;
 
         String list = String.join(",",
                 set.stream().map(ClientHandler::getUsername).toArray(String[]::new));
 
-        for (ClientHandler ch : set) ch.send("USERLIST:" + list);
+        to.send("USERLIST:" + list);
     }
 
-    private static class FileMeta {
-        final String id, filename, sender, room;
+    static class FileMeta {
+        final String id, hash, filename, sender, room;
         final Path path;
         final long size;
 
-        FileMeta(String id, Path path, String filename, long size, String sender, String room) {
+        FileMeta(String id, String hash, Path path, String filename, long size, String sender, String room) {
             this.id = id;
+            this.hash = hash;
             this.path = path;
             this.filename = filename;
             this.size = size;
@@ -117,98 +536,43 @@ public class ChatServer {
         }
     }
 
-    private void registerUploadedFile(FileMeta meta) {
-        files.put(meta.id, meta);
+    // Index and map change together under the index lock, so a compaction never misses an entry.
+    void registerUploadedFile(FileMeta meta) throws IOException {
+        synchronized (fileIndex) {
+            fileIndex.put(meta);
+            files.put(meta.id, meta);
+        }
         String fileMsg = "FILE:" + meta.id + ":" + meta.filename + ":" + meta.size + ":" + meta.sender;
 
         broadcastToRoom(meta.room, "SERVER", "FILE:" + meta.id + ":" + meta.filename + ":" + meta.size + ":" + meta.sender);
     }
 
-    private FileMeta getFileMeta(String id) {
+    FileMeta getFileMeta(String id) {
         return files.get(id);
     }
 
-    private class FileTransferServer implements Runnable {
-        private final int filePort;
-        private ServerSocket fileSocket;
-
-        FileTransferServer(int filePort) {
-            this.filePort = filePort;
-            try {
-                fileSocket = new ServerSocket(filePort);
-            } catch (IOException e) { throw new RuntimeException(e); }
-        }
-
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    Socket s = fileSocket.accept();
-                    handle(s);
-                } catch (IOException ignored) {}
-            }
-        }
-
-        private void handle(Socket s) {
-            try (InputStream rawIn = s.getInputStream();
-                 BufferedReader reader = new BufferedReader(new InputStreamReader(rawIn));
-                 OutputStream rawOut = s.getOutputStream();
-                 PrintWriter writer = new PrintWriter(rawOut, true)) {
-
-                String header = reader.readLine();
-                if (header == null) return;
-
-                if (header.startsWith("UPLOAD:")) {
-                    String[] p = header.split(":", 5);
-                    String room = p[1];
-                    String filename = p[2];
-                    long filesize = Long.parseLong(p[3]);
-                    String sender = p[4];
-
-                    String id = UUID.randomUUID().toString();
-                    Path dest = filesDir.resolve(id + "_" + filename);
-
-                    try (OutputStream fos = Files.newOutputStream(dest)) {
-                        byte[] buf = new byte[8192];
-                        long remaining = filesize;
-                        while (remaining > 0) {
-                            int r = rawIn.read(buf, 0, (int) Math.min(remaining, buf.length));
-                            if (r == -1) break;
-                            fos.write(buf, 0, r);
-                            remaining -= r;
-                        }
-                    }
-
-                    long actual = Files.size(dest);
-                    FileMeta meta = new FileMeta(id, dest, filename, actual, sender, room);
-                    registerUploadedFile(meta);
-
-                    writer.println("OK:" + id);
-                }
-
-                else if (header.startsWith("DOWNLOAD:")) {
-                    String id = header.substring(9);
-                    FileMeta meta = getFileMeta(id);
-
-                    if (meta == null) {
-                        writer.println("ERROR:NotFound");
-                        return;
-                    }
-
-                    writer.println("OK:" + meta.filename + ":" + meta.size);
-
-                    try (InputStream fis = Files.newInputStream(meta.path)) {
-                        fis.transferTo(rawOut);
-                    }
-                }
-
-            } catch (Exception ignored) {}
+    // Only the uploader may delete; the blob goes away with its last reference.
+    String removeFile(String id, String requester) throws IOException {
+        FileMeta meta;
+        synchronized (fileIndex) {
+            meta = files.get(id);
+            if (meta == null) return "ERROR:NotFound";
+            if (!meta.sender.equals(requester)) return "ERROR:Forbidden";
+            fileIndex.delete(id);
+            files.remove(id);
+            if (fileIndex.needsCompaction()) fileIndex.compact(files.values());
         }
+        attachments.release(meta.hash);
+        return "OK";
     }
 
+    // SIGTERM (or Ctrl-C) drains the server instead of cutting every client off at once.
     public static void main(String[] args) {
         try {
-            new ChatServer(5555).start();
+            ServerConfig config = ServerConfig.fromArgs(args);
+            ChatServer server = new ChatServer(config);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> server.drain(config.drainDeadlineMillis), "drain"));
+            server.start();
         } catch (Exception e) {
             e.printStackTrace();
         }
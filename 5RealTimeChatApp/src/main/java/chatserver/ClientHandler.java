@@ -1,98 +1,462 @@
 package chatserver;
 
+import chatproto.Compression;
+import chatproto.Wire;
+import chatproto.WireReader;
+
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class ClientHandler implements Runnable {
     private final Socket socket;
     private final ChatServer server;
-    private BufferedReader in;
-    private PrintWriter out;
-    private String username;
-    private String currentRoom;
+    private Connection conn;
+    private volatile String username;
+    private volatile String currentRoom;
+    // set once BIN1 is negotiated at LOGIN; every later frame in either direction is binary
+    private volatile boolean binary;
+    private boolean deflating;
+    // set by cleanup(); a login still waiting on the cluster then gives its name back
+    private boolean cleanedUp;
+    // set once the connection was asked to close; the blocking read loop stops there
+    private volatile boolean closing;
+    // Rate limiting, touched only by the reading thread. The user bucket lives as long as the
+    // connection, so logging out and back in does not refill it.
+    private final AtomicLong userBucket;
+    private AtomicLong roomBucket;
+    private boolean rateLimitReported;
+    private long readPauseNanos;
 
     public ClientHandler(Socket socket, ChatServer server) {
         this.socket = socket;
         this.server = server;
+        this.userBucket = server.userLimiter() == null ? null : server.userLimiter().newBucket();
+    }
+
+    public ClientHandler(Connection conn, ChatServer server) {
+        this.socket = null;
+        this.conn = conn;
+        this.server = server;
+        this.userBucket = server.userLimiter() == null ? null : server.userLimiter().newBucket();
     }
 
     public String getUsername() { return username; }
 
+    public int getOutboundQueueDepth() { return conn == null ? 0 : conn.queueDepth(); }
+
+    public long getDroppedMessages() { return conn == null ? 0 : conn.droppedMessages(); }
+
+    public boolean isBinary() { return binary; }
+
     public void send(String msg) {
-        out.println(msg);
-        out.flush();
+        send(Frame.of(msg));
+    }
+
+    void send(Frame frame) {
+        conn.send(binary ? frame.binary() : frame);
     }
 
     @Override
     public void run() {
         try {
-            in  = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
-            send("INFO:Welcome! Please login with LOGIN:<username>");
+            WireReader in = new WireReader(socket.getInputStream());
+            StreamConnection stream = new StreamConnection(socket, server.config(), server.metrics());
+            conn = stream;
+            server.execute(stream);
+            onOpen();
 
-            String line;
-            while ((line = in.readLine()) != null) {
-                handleLine(line);
+            WireReader.LineConsumer lines = this::handleLine;
+            while (true) {
+                if (binary) {
+                    ByteBuffer frame = in.readFrame();
+                    if (frame == null) break;
+                    handleFrame(frame);
+                } else if (!in.readLine(lines)) {
+                    break;
+                }
+                if (closing) break;
+                long pause = takeReadPause();
+                if (pause > 0) LockSupport.parkNanos(pause);
             }
         } catch (IOException e) {
         } finally {
             cleanup();
+            if (conn != null) conn.close();
+        }
+    }
+
+    void onOpen() {
+        server.metrics().connections.increment();
+        server.opened(this);
+        send("INFO:Welcome! Please login with LOGIN:<username>");
+    }
+
+    // Commands, looked up by the first byte of the line and then matched byte for byte.
+    enum Command {
+        LOGIN("LOGIN:", false), JOIN("JOIN:", false), LEAVE("LEAVE", true),
+        MSG("MSG:", false), PM("PM:", false), LOGOUT("LOGOUT", true), RESUME("RESUME:", false),
+        DELFILE("DELFILE:", false);
+
+        private static final Command[][] BY_FIRST_BYTE = new Command[128][];
+        static {
+            for (Command c : values()) {
+                Command[] slot = BY_FIRST_BYTE[c.prefix[0]];
+                slot = slot == null ? new Command[1] : Arrays.copyOf(slot, slot.length + 1);
+                slot[slot.length - 1] = c;
+                BY_FIRST_BYTE[c.prefix[0]] = slot;
+            }
+        }
+
+        final byte[] prefix;
+        final boolean exact;
+
+        Command(String prefix, boolean exact) {
+            this.prefix = prefix.getBytes(StandardCharsets.US_ASCII);
+            this.exact = exact;
+        }
+
+        static Command of(byte[] b, int off, int len) {
+            if (len == 0 || b[off] < 0) return null;
+            Command[] candidates = BY_FIRST_BYTE[b[off]];
+            if (candidates == null) return null;
+            for (Command c : candidates) {
+                if (c.exact ? len != c.prefix.length : len < c.prefix.length) continue;
+                if (Arrays.equals(b, off, off + c.prefix.length, c.prefix, 0, c.prefix.length)) return c;
+            }
+            return null;
         }
     }
 
-    private void handleLine(String line) {
+    public void handleLine(String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        handleLine(b, 0, b.length);
+    }
+
+    // One text line (without its newline) straight from the transport's read buffer. MSG and PM,
+    // the hot commands, allocate nothing beyond the Strings they pass on.
+    public void handleLine(byte[] b, int off, int len) {
         try {
-            if (line.startsWith("LOGIN:")) {
-                String name = line.substring(6).trim();
-                if (name.isEmpty()) { send("ERROR:Username cannot be empty"); return; }
-                if (server.registerUser(name, this)) {
-                    username = name;
-                    send("INFO:Logged in as " + username);
-                } else {
-                    send("ERROR:Username already taken");
+            Command cmd = Command.of(b, off, len);
+            server.metrics().command(cmd);
+            if (cmd == null) { send("ERROR:Unknown command"); return; }
+            int arg = off + cmd.prefix.length;
+            int end = off + len;
+            switch (cmd) {
+                case MSG -> {
+                    if (admit(true)) onMessage(new String(b, arg, end - arg, StandardCharsets.UTF_8));
+                }
+                case PM -> {
+                    if (!admit(false)) return;
+                    // format PM:target:message
+                    int colon = indexOf(b, arg, end, (byte) ':');
+                    if (colon < 0) { send("ERROR:PM format PM:target:message"); return; }
+                    onPrivate(new String(b, arg, colon - arg, StandardCharsets.UTF_8),
+                            new String(b, colon + 1, end - colon - 1, StandardCharsets.UTF_8));
                 }
-            } else if (line.startsWith("JOIN:")) {
-                String room = line.substring(5).trim();
-                if (currentRoom != null) {
-                    server.leaveRoom(currentRoom, this);
+                case LOGIN -> login(new String(b, arg, end - arg, StandardCharsets.UTF_8).trim());
+                case RESUME -> resume(new String(b, arg, end - arg, StandardCharsets.UTF_8).trim());
+                case JOIN -> {
+                    if (admit(false)) join(new String(b, arg, end - arg, StandardCharsets.UTF_8).trim());
                 }
-                currentRoom = room;
-                server.joinRoom(room, this);
-                send("INFO:Joined " + room);
-            } else if (line.equals("LEAVE")) {
-                if (currentRoom != null) {
-                    server.leaveRoom(currentRoom, this);
-                    send("INFO:Left " + currentRoom);
-                    currentRoom = null;
-                } else {
-                    send("ERROR:Not in any room");
+                case LEAVE -> leave();
+                case DELFILE -> deleteFile(new String(b, arg, end - arg, StandardCharsets.UTF_8).trim());
+                case LOGOUT -> {
+                    send("INFO:Bye");
+                    cleanup();
+                    close();
                 }
-            } else if (line.startsWith("MSG:")) {
-                if (currentRoom == null) { send("ERROR:Join a room first"); return; }
-                String msg = line.substring(4);
-                server.broadcastToRoom(currentRoom, username, msg);
-            } else if (line.startsWith("PM:")) {
-                // format PM:target:message
-                String[] parts = line.split(":", 3);
-                if (parts.length < 3) { send("ERROR:PM format PM:target:message"); return; }
-                server.sendPrivate(username, parts[1], parts[2]);
-            } else if (line.equals("LOGOUT")) {
-                send("INFO:Bye");
-                cleanup();
-                try { socket.close(); } catch (IOException ignored) {}
-            } else {
-                send("ERROR:Unknown command");
             }
         } catch (Exception e) {
             send("ERROR:Server exception: " + e.getMessage());
         }
     }
 
-    private void cleanup() {
+    private static int indexOf(byte[] b, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == value) return i;
+        }
+        return -1;
+    }
+
+    // DELFILE:id. Deletion goes through the chat session so the uploader is the logged-in name,
+    // not whatever a file-port client claims to be.
+    private void deleteFile(String id) throws IOException {
+        String name = username;
+        if (name == null) { send("ERROR:Login first"); return; }
+        String reply = server.removeFile(id, name);
+        send(reply.equals("OK") ? "INFO:File " + id + " deleted" : reply);
+    }
+
+    // LOGIN:name, with :BIN1 and then :DEFLATE optionally appended
+    private void login(String arg) {
+        String name = negotiate(arg);
+        if (name == null) return;
+        if (name.isEmpty()) { send("ERROR:Username cannot be empty"); return; }
+        register(name, () -> { });
+    }
+
+    // RESUME:token, with the same options as LOGIN. The token comes from the RECONNECT line of a
+    // draining server and brings back the name and room without a join announcement or roster
+    // snapshot; the client still has both from before the restart.
+    private void resume(String arg) {
+        String token = negotiate(arg);
+        if (token == null) return;
+        if (username != null) { send("ERROR:Already logged in"); return; }
+        SessionTokens.Session session = server.sessions().verify(token, System.currentTimeMillis());
+        if (session == null) { send("ERROR:Session expired, please LOGIN"); return; }
+        register(session.name(), () -> {
+            if (session.room() == null) return;
+            currentRoom = session.room();
+            server.resumeRoom(currentRoom, this);
+            roomBucket = server.roomLimits() == null ? null : server.roomLimits().bucket(currentRoom);
+            send("INFO:Joined " + currentRoom);
+        });
+    }
+
+    // Strips the :BIN1 and :DEFLATE options and switches to what they ask for. Returns the rest
+    // of the argument, or null if BIN1 was refused.
+    private String negotiate(String arg) {
+        boolean deflate = arg.endsWith(":" + Compression.DEFLATE);
+        if (deflate) arg = arg.substring(0, arg.length() - Compression.DEFLATE.length() - 1);
+        if (arg.endsWith(":" + Wire.VERSION)) {
+            arg = arg.substring(0, arg.length() - Wire.VERSION.length() - 1);
+            if (!upgrade()) return null;
+        }
+        if (deflate) startDeflate();
+        return arg;
+    }
+
+    // In cluster mode the answer comes from another node, so the rest of the login, and
+    // `then` if the name was granted, runs once it arrives; no input is read in between.
+    private void register(String name, Runnable then) {
+        CompletableFuture<Boolean> claim = server.registerUser(name, this);
+        conn.resumeWhen(claim, () -> {
+            if (registered(name, claim)) then.run();
+        });
+    }
+
+    private boolean registered(String name, CompletableFuture<Boolean> claim) {
+        boolean registered;
         try {
-            if (currentRoom != null) server.leaveRoom(currentRoom, this);
-            if (username != null) server.unregisterUser(username);
-            socket.close();
-        } catch (IOException ignored) {}
+            registered = claim.join();
+        } catch (CompletionException e) {
+            // cluster mode, and the node that owns this name is down
+            send("ERROR:" + e.getCause().getMessage());
+            return false;
+        }
+        synchronized (this) {
+            if (cleanedUp) {
+                if (registered) server.unregisterUser(name);
+                return false;
+            }
+            if (registered) username = name;
+        }
+        if (registered) {
+            server.metrics().logins.increment();
+            send("INFO:Logged in as " + username);
+        } else {
+            server.metrics().loginsRejected.increment();
+            send("ERROR:Username already taken");
+        }
+        return registered;
+    }
+
+    // JOIN:room, JOIN:room:last=N or JOIN:room:since=epochMillis
+    private void join(String room) {
+        int last = 0;
+        long since = -1;
+        int opt = room.lastIndexOf(':');
+        if (opt >= 0) {
+            String option = room.substring(opt + 1);
+            try {
+                if (option.startsWith("last=")) last = Integer.parseInt(option.substring(5));
+                else if (option.startsWith("since=")) since = Long.parseLong(option.substring(6));
+                else opt = -1;
+            } catch (NumberFormatException e) {
+                send("ERROR:JOIN format JOIN:room[:last=N|:since=epochMillis]");
+                return;
+            }
+            if (opt >= 0) room = room.substring(0, opt);
+        }
+        if (currentRoom != null) {
+            server.leaveRoom(currentRoom, this);
+        }
+        currentRoom = room;
+        server.joinRoom(room, this, last, since);
+        roomBucket = server.roomLimits() == null ? null : server.roomLimits().bucket(room);
+        send("INFO:Joined " + room);
+    }
+
+    private void leave() {
+        if (currentRoom != null) {
+            server.leaveRoom(currentRoom, this);
+            send("INFO:Left " + currentRoom);
+            currentRoom = null;
+            roomBucket = null;
+        } else {
+            send("ERROR:Not in any room");
+        }
+    }
+
+    // One BIN1 frame payload: MSG and PM carry their fields directly, anything else is a text line.
+    public void handleFrame(ByteBuffer payload) {
+        try {
+            switch (payload.get()) {
+                case Wire.MSG -> {
+                    server.metrics().command(Command.MSG);
+                    if (admit(true)) onMessage(Wire.string(payload));
+                }
+                case Wire.PM -> {
+                    server.metrics().command(Command.PM);
+                    if (admit(false)) onPrivate(Wire.string(payload), Wire.string(payload));
+                }
+                case Wire.LINE -> {
+                    int len = Wire.getVarint(payload);
+                    if (len > payload.remaining()) throw new IllegalArgumentException("Truncated field");
+                    if (payload.hasArray()) handleLine(payload.array(), payload.arrayOffset() + payload.position(), len);
+                    else handleLine(Wire.string(payload.position(payload.position() - Wire.varintSize(len))));
+                }
+                default -> send("ERROR:Unknown frame type");
+            }
+        } catch (RuntimeException e) {
+            send("ERROR:Malformed frame");
+        }
+    }
+
+    // Charges a MSG, PM or JOIN to the user's bucket and, for room messages, the room's. False
+    // if the command is to be skipped. Under DELAY the command still runs but the connection's
+    // next read waits until the tokens it used would have been free.
+    private boolean admit(boolean roomMessage) {
+        RateLimiter users = server.userLimiter();
+        RateLimiter.Rooms rooms = server.roomLimits();
+        AtomicLong room = roomMessage && rooms != null ? roomBucket : null;
+        if (users == null && room == null) return true;
+
+        ServerConfig.RateLimitAction action = server.config().rateLimitAction;
+        long maxWait = action == ServerConfig.RateLimitAction.DELAY ? RateLimiter.MAX_DELAY_NANOS : 0;
+        long now = System.nanoTime();
+        long wait = 0;
+        if (users != null) {
+            wait = users.acquire(userBucket, now, maxWait);
+            if (wait == RateLimiter.REFUSED) return rateLimited(action);
+        }
+        if (room != null) {
+            long roomWait = rooms.limiter().acquire(room, now, maxWait);
+            if (roomWait == RateLimiter.REFUSED) {
+                if (users != null) users.refund(userBucket);
+                return rateLimited(action);
+            }
+            wait = Math.max(wait, roomWait);
+        }
+        if (wait > 0) {
+            server.metrics().rateLimited.increment();
+            readPauseNanos = wait;
+        }
+        rateLimitReported = false;
+        return true;
+    }
+
+    // A flooding client is told once per run of refused commands, not once per command.
+    private boolean rateLimited(ServerConfig.RateLimitAction action) {
+        server.metrics().rateLimited.increment();
+        if (action == ServerConfig.RateLimitAction.DISCONNECT) {
+            send("ERROR:Rate limit exceeded, disconnecting");
+            cleanup();
+            close();
+        } else if (!rateLimitReported) {
+            rateLimitReported = true;
+            send("ERROR:Rate limit exceeded");
+        }
+        return false;
+    }
+
+    // How long the transport should hold off reading this client's next command; 0 for now.
+    long takeReadPause() {
+        long pause = readPauseNanos;
+        readPauseNanos = 0;
+        return pause;
+    }
+
+    private void onMessage(String text) {
+        if (currentRoom == null) { send("ERROR:Join a room first"); return; }
+        server.broadcastToRoom(currentRoom, username, text);
+    }
+
+    private void onPrivate(String to, String text) {
+        server.sendPrivate(username, to, text);
+    }
+
+    // Only before login and joining: until then nobody else sends to this client, so the
+    // switch cannot interleave with a broadcast that still picked the text encoding.
+    private boolean upgrade() {
+        if (binary) return true;
+        if (username != null || currentRoom != null) {
+            send("ERROR:" + Wire.VERSION + " must be requested on the first LOGIN");
+            return false;
+        }
+        send(Wire.UPGRADE_REPLY);
+        binary = true;
+        return true;
+    }
+
+    // Unlike BIN1 this can start at any point: the writer switches right after the reply, so
+    // frames from other threads fall cleanly on one side of it. Not answered when the server
+    // has compression off, which leaves the client on plain output.
+    private void startDeflate() {
+        if (deflating || server.config().deflateLevel <= 0) return;
+        deflating = true;
+        Frame reply = Frame.of(Compression.DEFLATE_REPLY);
+        if (binary) reply = reply.binary();
+        conn.deflateAfter(reply);
+        conn.send(reply);
+    }
+
+    // Server drain: tells the client when to come back and how to pick up where it was, then
+    // closes once everything queued so far has been written.
+    void drain(long backoffMillis, long resumeExpiresMillis) {
+        String name = username;
+        String token = name == null ? "" : server.sessions().issue(name, currentRoom, resumeExpiresMillis);
+        send("RECONNECT:" + backoffMillis + ":" + token);
+        close();
+    }
+
+    // The cluster gave this user's name to someone else; closes once the error has been written.
+    void evict(String reason) {
+        send("ERROR:" + reason);
+        close();
+    }
+
+    // Closes once everything sent so far is written. Input the client pipelined behind the
+    // command that closed is not run: the NIO transport stops at close(), the read loop here.
+    private void close() {
+        closing = true;
+        conn.close();
+    }
+
+    void abort() {
+        conn.abort();
+    }
+
+    // Called once the connection is gone; safe to call more than once.
+    void cleanup() {
+        server.closed(this);
+        String room = currentRoom;
+        currentRoom = null;
+        roomBucket = null;
+        if (room != null) server.leaveRoom(room, this);
+        String name;
+        synchronized (this) {
+            cleanedUp = true;
+            name = username;
+            username = null;
+        }
+        if (name != null) server.unregisterUser(name);
     }
 }
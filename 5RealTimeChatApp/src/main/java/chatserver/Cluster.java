@@ -0,0 +1,544 @@
+package chatserver;
+
+import chatproto.Wire;
+import chatproto.WireReader;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * Cluster mode: ChatServers on a static peer list share presence over an internal TCP link.
+ * Every room and every username has an owner node, picked by consistent hashing.
+ *
+ *  - The owner of a username keeps its claim, so a name can be logged in once cluster-wide,
+ *    and knows which node the user is on, so PMs to remote users are relayed through it.
+ *  - The owner of a room keeps which nodes have local members and the room roster. Every
+ *    broadcast and join/leave event goes through the owner, which fans it out to those nodes
+ *    in one order, so all members see the same sequence.
+ *
+ * Links are one-way: each node dials every peer to send, and reads what peers dial in. Frames
+ * use the BIN1 encoding. The listener binds to cluster-bind only, and a link is only read
+ * once the dialer has answered a random CHALLENGE with an HMAC under the shared cluster key,
+ * so nothing without the key can pose as a node. When an inbound link drops, that node's
+ * memberships are dropped at once, but its claims are kept for CLAIM_GRACE so a brief drop
+ * does not free the names of users who are still logged in there. When an outbound link comes
+ * up, this node re-sends what the peer owns and ends with RESYNC_DONE; the owner then drops
+ * the claims the node did not repeat, and the node logs out any user whose claim was refused. Membership
+ * is static: a node that is down makes logins for the names it owns fail.
+ */
+class Cluster {
+    private static final byte HELLO = 10;
+    private static final byte CLAIM = 11;
+    private static final byte CLAIM_REPLY = 12;
+    private static final byte RELEASE = 13;
+    private static final byte SUBSCRIBE = 14;
+    private static final byte UNSUBSCRIBE = 15;
+    private static final byte MEMBER_JOIN = 16;
+    private static final byte MEMBER_LEAVE = 17;
+    private static final byte PUBLISH = 18;
+    private static final byte DELIVER_MSG = 19;
+    private static final byte DELIVER_LINE = 20;
+    private static final byte DELIVER_TO = 21;
+    private static final byte PM = 22;
+    private static final byte DELIVER_PM = 23;
+    private static final byte CHALLENGE = 24;
+    private static final byte RESYNC_DONE = 25;
+
+    private static final long CLAIM_TIMEOUT_MILLIS = 3000;
+    private static final long RECONNECT_MILLIS = 500;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 3000;
+    private static final long CLAIM_GRACE_MILLIS = 30_000;
+
+    private final ChatServer server;
+    private final String self;
+    private final HashRing ring;
+    private final Map<String, Peer> peers = new HashMap<>();
+    private final ServerSocketChannel listener;
+    private final SecretKeySpec clusterKey;
+    private final SecureRandom random = new SecureRandom();
+
+    // owner side
+    private final ConcurrentHashMap<String, String> claims = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, OwnedRoom> owned = new ConcurrentHashMap<>();
+    // bumped each time a node's inbound link comes up, so a pending claim expiry can tell it
+    // was reconnected in the meantime
+    private final ConcurrentHashMap<String, Long> linkEpochs = new ConcurrentHashMap<>();
+    // names each node has claimed since its link came up, until its RESYNC_DONE
+    private final ConcurrentHashMap<String, Set<String>> reclaimed = new ConcurrentHashMap<>();
+
+    // requester side
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> pendingClaims = new ConcurrentHashMap<>();
+    private final AtomicLong claimIds = new AtomicLong();
+
+    // Unlike the session key, the cluster key is never generated here: a node that made up its
+    // own could not authenticate to any other, so a missing file stops the node from starting.
+    static SecretKeySpec loadKey(Path keyFile) throws IOException {
+        if (!Files.exists(keyFile)) {
+            throw new IOException("Cluster key file " + keyFile.toAbsolutePath() + " not found; create one (e.g. "
+                    + "head -c 32 /dev/urandom > " + keyFile + ") and copy the same file to every node");
+        }
+        return new SecretKeySpec(SessionTokens.readKey(keyFile), "HmacSHA256");
+    }
+
+    Cluster(ChatServer server, ServerConfig config, SecretKeySpec clusterKey) throws IOException {
+        this.server = server;
+        this.self = config.nodeId;
+        List<String> nodes = new ArrayList<>(List.of(self));
+        for (String spec : config.peers.split(",")) {
+            if (spec.isBlank()) continue;
+            // id@host:port
+            int at = spec.indexOf('@');
+            int colon = spec.lastIndexOf(':');
+            if (at <= 0 || colon < at) throw new IllegalArgumentException("Expected id@host:port but got: " + spec);
+            String id = spec.substring(0, at).trim();
+            InetSocketAddress address = new InetSocketAddress(spec.substring(at + 1, colon), Integer.parseInt(spec.substring(colon + 1)));
+            peers.put(id, new Peer(id, address));
+            nodes.add(id);
+        }
+        this.ring = new HashRing(nodes);
+        this.clusterKey = clusterKey;
+
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(config.clusterBind, config.clusterPort));
+        Thread.ofPlatform().daemon().name("cluster-accept").start(this::acceptLoop);
+        for (Peer p : peers.values()) Thread.ofPlatform().daemon().name("cluster-link-" + p.id).start(p);
+    }
+
+    String nodeId() {
+        return self;
+    }
+
+    private String userOwner(String user) {
+        return ring.ownerOf("user:" + user);
+    }
+
+    private String roomOwner(String room) {
+        return ring.ownerOf("room:" + room);
+    }
+
+    // ---- called by ChatServer ----
+
+    // Completes with true if the name was free cluster-wide, or fails with an
+    // IllegalStateException if its owner node cannot be reached or does not answer in time.
+    // Never blocks: the reply arrives on the owner's inbound link thread.
+    CompletableFuture<Boolean> claim(String user) {
+        String owner = userOwner(user);
+        if (owner.equals(self)) return CompletableFuture.completedFuture(claimAsOwner(user, self));
+
+        Peer p = peers.get(owner);
+        if (!p.connected) return CompletableFuture.failedFuture(new IllegalStateException("Cluster node " + owner + " is unreachable"));
+        return requestClaim(p, user).handle((ok, e) -> {
+            if (e == null) return ok;
+            // the owner may still grant it after we gave up; don't leave the name held
+            p.send(Wire.encode(RELEASE, user));
+            throw new IllegalStateException("Cluster node " + owner + " did not answer");
+        });
+    }
+
+    private CompletableFuture<Boolean> requestClaim(Peer p, String user) {
+        String id = Long.toString(claimIds.incrementAndGet());
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        pendingClaims.put(id, reply);
+        p.send(Wire.encode(CLAIM, id, user));
+        return reply.orTimeout(CLAIM_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).whenComplete((ok, e) -> pendingClaims.remove(id));
+    }
+
+    void release(String user) {
+        String owner = userOwner(user);
+        if (owner.equals(self)) claims.remove(user, self);
+        else peers.get(owner).send(Wire.encode(RELEASE, user));
+    }
+
+    // Called inside the rooms.compute() that created or removed the node's member set, so
+    // subscribe and unsubscribe for one room reach the owner in the order they happened.
+    void subscribe(String room) {
+        String owner = roomOwner(room);
+        if (owner.equals(self)) subscribeAsOwner(room, self);
+        else peers.get(owner).send(Wire.encode(SUBSCRIBE, room));
+    }
+
+    void unsubscribe(String room) {
+        String owner = roomOwner(room);
+        if (owner.equals(self)) unsubscribeAsOwner(room, self);
+        else peers.get(owner).send(Wire.encode(UNSUBSCRIBE, room));
+    }
+
+    void memberJoined(String room, String user) {
+        String owner = roomOwner(room);
+        if (owner.equals(self)) memberJoinAsOwner(room, user, self);
+        else peers.get(owner).send(Wire.encode(MEMBER_JOIN, room, user));
+    }
+
+    void memberLeft(String room, String user) {
+        String owner = roomOwner(room);
+        if (owner.equals(self)) memberLeaveAsOwner(room, user, self);
+        else peers.get(owner).send(Wire.encode(MEMBER_LEAVE, room, user));
+    }
+
+    void publish(String room, String ts, String user, String text) {
+        String owner = roomOwner(room);
+        if (owner.equals(self)) publishAsOwner(room, ts, user, text);
+        else peers.get(owner).send(Wire.encode(PUBLISH, room, ts, user, text));
+    }
+
+    void privateMessage(String from, String to, String ts, String text) {
+        String owner = userOwner(to);
+        if (owner.equals(self)) routePrivate(from, to, ts, text);
+        else peers.get(owner).send(Wire.encode(PM, from, to, ts, text));
+    }
+
+    // ---- owner side ----
+
+    private boolean claimAsOwner(String user, String node) {
+        String holder = claims.putIfAbsent(user, node);
+        return holder == null || holder.equals(node) && !node.equals(self);
+    }
+
+    private void routePrivate(String from, String to, String ts, String text) {
+        String node = claims.get(to);
+        if (node == null) return;
+        if (node.equals(self)) server.deliverPrivate(from, to, ts, text);
+        else peers.get(node).send(Wire.encode(DELIVER_PM, from, to, ts, text));
+    }
+
+    // Owner-side state of one room. Events and broadcasts run under its monitor, which is what
+    // puts all of the room's traffic into one order. Subscriptions only touch the concurrent
+    // node set: they arrive under a history lock that a broadcast may be waiting for.
+    private static class OwnedRoom {
+        final Set<String> nodes = ConcurrentHashMap.newKeySet();
+        final Map<String, String> members = new LinkedHashMap<>();
+        volatile boolean removed;
+    }
+
+    private interface RoomAction {
+        void apply(OwnedRoom r);
+    }
+
+    private void withRoom(String room, RoomAction action) {
+        while (true) {
+            OwnedRoom r = owned.computeIfAbsent(room, k -> new OwnedRoom());
+            synchronized (r) {
+                if (r.removed) continue;
+                action.apply(r);
+                if (r.members.isEmpty()) {
+                    owned.computeIfPresent(room, (k, v) -> {
+                        if (v != r || !v.nodes.isEmpty()) return v;
+                        v.removed = true;
+                        return null;
+                    });
+                }
+                return;
+            }
+        }
+    }
+
+    private void subscribeAsOwner(String room, String node) {
+        owned.compute(room, (k, r) -> {
+            if (r == null) r = new OwnedRoom();
+            r.nodes.add(node);
+            return r;
+        });
+    }
+
+    // The entry itself goes once the member leave that follows has emptied the roster.
+    private void unsubscribeAsOwner(String room, String node) {
+        OwnedRoom r = owned.get(room);
+        if (r != null) r.nodes.remove(node);
+    }
+
+    private void memberJoinAsOwner(String room, String user, String node) {
+        withRoom(room, r -> {
+            r.members.put(user, node);
+            fanOutLine(r, room, "INFO:" + user + " joined the room.");
+            fanOutLine(r, room, "USERJOIN:" + user);
+            sendTo(node, user, "USERLIST:" + String.join(",", r.members.keySet()));
+        });
+    }
+
+    private void memberLeaveAsOwner(String room, String user, String node) {
+        withRoom(room, r -> {
+            if (!r.members.remove(user, node)) return;
+            fanOutLine(r, room, "INFO:" + user + " left the room.");
+            fanOutLine(r, room, "USERLEAVE:" + user);
+        });
+    }
+
+    private void publishAsOwner(String room, String ts, String user, String text) {
+        withRoom(room, r -> {
+            for (String node : r.nodes) {
+                if (node.equals(self)) server.deliverMessage(room, Frame.msg(ts, room, user, text));
+                else peers.get(node).send(Wire.encode(DELIVER_MSG, room, ts, user, text));
+            }
+        });
+    }
+
+    private void fanOutLine(OwnedRoom r, String room, String line) {
+        ByteBuffer frame = null;
+        for (String node : r.nodes) {
+            if (node.equals(self)) {
+                server.deliverLine(room, line);
+            } else {
+                if (frame == null) frame = Wire.encode(DELIVER_LINE, room, line);
+                peers.get(node).send(frame.duplicate());
+            }
+        }
+    }
+
+    private void sendTo(String node, String user, String line) {
+        if (node.equals(self)) server.deliverToUser(user, line);
+        else peers.get(node).send(Wire.encode(DELIVER_TO, user, line));
+    }
+
+    // A node went away: its users leave their rooms as far as the cluster is concerned. Their
+    // names stay claimed until expireClaims() runs.
+    private void forget(String node) {
+        for (String room : owned.keySet()) {
+            withRoom(room, r -> {
+                r.nodes.remove(node);
+                List<String> gone = new ArrayList<>();
+                r.members.forEach((user, at) -> { if (at.equals(node)) gone.add(user); });
+                for (String user : gone) {
+                    r.members.remove(user);
+                    fanOutLine(r, room, "INFO:" + user + " left the room.");
+                    fanOutLine(r, room, "USERLEAVE:" + user);
+                }
+            });
+        }
+    }
+
+    // Frees the node's names CLAIM_GRACE after its link dropped, unless it came back by then;
+    // if it did, its RESYNC_DONE settles which of them it still holds.
+    private void expireClaims(String node, long epoch) {
+        CompletableFuture.runAsync(() -> {
+            if (linkEpochs.get(node) == epoch) claims.values().removeIf(node::equals);
+        }, CompletableFuture.delayedExecutor(CLAIM_GRACE_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private void resynced(String node) {
+        Set<String> names = reclaimed.remove(node);
+        if (names != null) claims.entrySet().removeIf(e -> e.getValue().equals(node) && !names.contains(e.getKey()));
+    }
+
+    // ---- links ----
+
+    private void acceptLoop() {
+        while (listener.isOpen()) {
+            try {
+                SocketChannel ch = listener.accept();
+                Thread.ofPlatform().daemon().name("cluster-in").start(() -> readLink(ch));
+            } catch (IOException e) {
+                if (!listener.isOpen()) return;
+            }
+        }
+    }
+
+    private void readLink(SocketChannel ch) {
+        String from = null;
+        long epoch = 0;
+        try (ch) {
+            WireReader in = new WireReader(ch.socket().getInputStream());
+            from = authenticate(ch, in);
+            if (from == null) return;
+            epoch = linkEpochs.merge(from, 1L, Long::sum);
+            reclaimed.put(from, ConcurrentHashMap.newKeySet());
+            Thread.currentThread().setName("cluster-in-" + from);
+            ByteBuffer f;
+            while ((f = in.readFrame()) != null) handle(from, f);
+        } catch (IOException | RuntimeException e) {
+            if (from != null) System.err.println("Cluster link from " + from + " failed: " + e.getMessage());
+        } finally {
+            if (from != null) {
+                forget(from);
+                expireClaims(from, epoch);
+                // the peer is probably gone; don't wait for a write to find out our link is dead
+                peers.get(from).reset();
+            }
+        }
+    }
+
+    // Sends a fresh challenge and expects HELLO:id:mac back within the handshake timeout.
+    // Returns the peer's id, or null if it is unknown or its mac is wrong.
+    private String authenticate(SocketChannel ch, WireReader in) throws IOException {
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        String challenge = Base64.getEncoder().encodeToString(nonce);
+        ByteBuffer out = Wire.encode(CHALLENGE, challenge);
+        while (out.hasRemaining()) ch.write(out);
+
+        ch.socket().setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        ByteBuffer f = in.readFrame();
+        ch.socket().setSoTimeout(0);
+        if (f == null || f.get() != HELLO) return null;
+        String from = Wire.string(f);
+        String mac = Wire.string(f);
+        byte[] expected = helloMac(from, self, challenge);
+        if (!peers.containsKey(from) || !MessageDigest.isEqual(mac.getBytes(StandardCharsets.US_ASCII),
+                Base64.getEncoder().encode(expected))) {
+            System.err.println("Cluster link from " + ch.getRemoteAddress() + " failed authentication as " + from);
+            return null;
+        }
+        return from;
+    }
+
+    // Covers who is dialling whom as well as the challenge, so a HELLO is good for one link only.
+    private byte[] helloMac(String from, String to, String challenge) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(clusterKey);
+            return mac.doFinal((from + "\n" + to + "\n" + challenge).getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void handle(String from, ByteBuffer f) {
+        switch (f.get()) {
+            case CLAIM -> {
+                String id = Wire.string(f);
+                String user = Wire.string(f);
+                boolean ok = claimAsOwner(user, from);
+                Set<String> names = reclaimed.get(from);
+                if (ok && names != null) names.add(user);
+                peers.get(from).send(Wire.encode(CLAIM_REPLY, id, ok ? "1" : "0"));
+            }
+            case CLAIM_REPLY -> {
+                CompletableFuture<Boolean> reply = pendingClaims.get(Wire.string(f));
+                if (reply != null) reply.complete(Wire.string(f).equals("1"));
+            }
+            case RELEASE -> claims.remove(Wire.string(f), from);
+            case RESYNC_DONE -> resynced(from);
+            case SUBSCRIBE -> subscribeAsOwner(Wire.string(f), from);
+            case UNSUBSCRIBE -> unsubscribeAsOwner(Wire.string(f), from);
+            case MEMBER_JOIN -> memberJoinAsOwner(Wire.string(f), Wire.string(f), from);
+            case MEMBER_LEAVE -> memberLeaveAsOwner(Wire.string(f), Wire.string(f), from);
+            case PUBLISH -> publishAsOwner(Wire.string(f), Wire.string(f), Wire.string(f), Wire.string(f));
+            case PM -> routePrivate(Wire.string(f), Wire.string(f), Wire.string(f), Wire.string(f));
+            case DELIVER_MSG -> {
+                String room = Wire.string(f);
+                server.deliverMessage(room, Frame.msg(Wire.string(f), room, Wire.string(f), Wire.string(f)));
+            }
+            case DELIVER_LINE -> server.deliverLine(Wire.string(f), Wire.string(f));
+            case DELIVER_TO -> server.deliverToUser(Wire.string(f), Wire.string(f));
+            case DELIVER_PM -> server.deliverPrivate(Wire.string(f), Wire.string(f), Wire.string(f), Wire.string(f));
+            default -> throw new IllegalArgumentException("Unknown cluster frame");
+        }
+    }
+
+    // Outbound link to one peer, redialled whenever it drops. Frames sent while it is down are
+    // dropped; the state they carried is re-sent by resync() once it is back.
+    private class Peer implements Runnable {
+        private static final ByteBuffer WAKE_UP = ByteBuffer.allocate(0);
+
+        final String id;
+        final InetSocketAddress address;
+        final LinkedBlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>();
+        volatile boolean connected;
+        volatile SocketChannel channel;
+
+        Peer(String id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        void send(ByteBuffer frame) {
+            if (connected) queue.add(frame);
+        }
+
+        // Drops the current connection and starts redialling.
+        void reset() {
+            SocketChannel ch = channel;
+            if (ch == null) return;
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+            queue.add(WAKE_UP);
+        }
+
+        @Override
+        public void run() {
+            List<ByteBuffer> batch = new ArrayList<>();
+            while (true) {
+                try (SocketChannel ch = SocketChannel.open(address)) {
+                    ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    ch.socket().setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                    ByteBuffer challenge = new WireReader(ch.socket().getInputStream()).readFrame();
+                    if (challenge == null || challenge.get() != CHALLENGE) throw new IOException("No cluster challenge from " + id);
+                    String mac = Base64.getEncoder().encodeToString(helloMac(self, id, Wire.string(challenge)));
+                    channel = ch;
+                    queue.clear();
+                    queue.add(Wire.encode(HELLO, self, mac));
+                    connected = true;
+                    System.out.println("Cluster link to " + id + " up");
+                    resync(this);
+                    while (ch.isOpen()) {
+                        batch.add(queue.take());
+                        queue.drainTo(batch, 255);
+                        ByteBuffer[] out = batch.toArray(new ByteBuffer[0]);
+                        long remaining = 0;
+                        for (ByteBuffer b : out) remaining += b.remaining();
+                        while (remaining > 0) remaining -= ch.write(out);
+                        batch.clear();
+                    }
+                    System.err.println("Cluster link to " + id + " reset");
+                } catch (IOException e) {
+                    if (connected) System.err.println("Cluster link to " + id + " down: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    connected = false;
+                    channel = null;
+                    batch.clear();
+                }
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Re-sends the claims, subscriptions and memberships of this node that the peer owns. A
+    // claim refused now means the name was given to someone on another node while the link
+    // was down too long, so the user here is the one logged out. No answer is left alone: the
+    // link has dropped again and the next resync asks once more.
+    private void resync(Peer p) {
+        for (String user : server.localUsers()) {
+            if (!userOwner(user).equals(p.id)) continue;
+            requestClaim(p, user).thenAccept(ok -> {
+                if (!ok) server.evictUser(user, "Username " + user + " is logged in on another node");
+            });
+        }
+        p.send(Wire.encode(RESYNC_DONE));
+        server.forEachLocalRoom((room, users) -> {
+            if (!roomOwner(room).equals(p.id)) return;
+            p.send(Wire.encode(SUBSCRIBE, room));
+            for (String user : users) p.send(Wire.encode(MEMBER_JOIN, room, user));
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package chatserver;
+
+import java.util.concurrent.CompletableFuture;
+
+// Transport side of a ClientHandler: the blocking socket or a selector-managed channel.
+public interface Connection {
+
+    void send(Frame frame);
+
+    // Closes after anything already queued by send() has been written.
+    void close();
+
+    // Closes at once, discarding anything still queued. Safe to call from any thread.
+    void abort();
+
+    // Frames waiting in this client's outbound queue.
+    int queueDepth();
+
+    // Compresses everything sent after `last`, which itself still goes out as is, as one deflate
+    // stream (see FrameDeflater).
+    void deflateAfter(Frame last);
+
+    // Frames discarded by the overflow policy since the connection opened.
+    long droppedMessages();
+
+    // Runs `then` on the reading side once `pending` completes, and reads no further input from
+    // the client until it has run. The default waits right here, which suits a connection with
+    // a thread of its own; a selector-managed one must not block its thread.
+    default void resumeWhen(CompletableFuture<?> pending, Runnable then) {
+        pending.handle((r, e) -> null).join();
+        then.run();
+    }
+}
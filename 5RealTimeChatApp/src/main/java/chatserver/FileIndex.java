@@ -0,0 +1,176 @@
+package chatserver;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+// Append-only log of FileMeta changes, so uploads survive a restart without walking server_files.
+// Record: [int payload length][int crc32c][payload], payload is PUT(id, hash, filename, size,
+// sender, room) or DELETE(id). Startup replays the mapped log; a torn tail from a crash is cut off.
+// Once deleted records outnumber live ones the log is rewritten with only the live entries.
+class FileIndex {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int MIN_COMPACT = 1024;
+
+    private final Path file;
+    private final Path dir;
+    private FileChannel log;
+    private long live;
+    private long dead;
+
+    FileIndex(Path file) throws IOException {
+        this.file = file;
+        this.dir = file.toAbsolutePath().getParent();
+        this.log = open(file);
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Replays the log in file order; put receives every entry still live at the end.
+    synchronized void replay(Consumer<ChatServer.FileMeta> put, Consumer<String> delete,
+                             AttachmentStore store) throws IOException {
+        long size = log.size();
+        long valid = 0;
+        if (size > 0) {
+            MappedByteBuffer buf = log.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32C crc = new CRC32C();
+            while (buf.remaining() >= 8) {
+                int len = buf.getInt();
+                int sum = buf.getInt();
+                if (len <= 0 || len > buf.remaining()) break;
+                ByteBuffer payload = buf.slice(buf.position(), len);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != sum) break;
+                buf.position(buf.position() + len);
+                valid = buf.position();
+
+                if (payload.get() == PUT) {
+                    String id = readString(payload);
+                    String hash = readString(payload);
+                    String filename = readString(payload);
+                    long fileSize = payload.getLong();
+                    String sender = readString(payload);
+                    String room = readString(payload);
+                    put.accept(new ChatServer.FileMeta(id, hash, store.path(hash), filename, fileSize, sender, room));
+                    live++;
+                } else {
+                    delete.accept(readString(payload));
+                    live--;
+                    dead += 2;
+                }
+            }
+        }
+        if (valid < size) log.truncate(valid);
+        log.position(valid);
+    }
+
+    synchronized void put(ChatServer.FileMeta meta) throws IOException {
+        append(putPayload(meta));
+        live++;
+    }
+
+    private static ByteBuffer putPayload(ChatServer.FileMeta meta) {
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 + 2 * 5
+                + utf8Length(meta.id, meta.hash, meta.filename, meta.sender, meta.room));
+        payload.put(PUT);
+        writeString(payload, meta.id);
+        writeString(payload, meta.hash);
+        writeString(payload, meta.filename);
+        payload.putLong(meta.size);
+        writeString(payload, meta.sender);
+        writeString(payload, meta.room);
+        return payload;
+    }
+
+    synchronized void delete(String id) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(1 + 2 + utf8Length(id));
+        payload.put(DELETE);
+        writeString(payload, id);
+        append(payload);
+        live--;
+        dead += 2;
+    }
+
+    synchronized boolean needsCompaction() {
+        return dead >= MIN_COMPACT && dead > live;
+    }
+
+    // Rewrites the log with just the given entries and swaps it in atomically. The new file is
+    // written through one buffer and forced once, not once per entry; until the rename the old
+    // log stays in use, so a failure leaves it as it was.
+    synchronized void compact(Collection<ChatServer.FileMeta> entries) throws IOException {
+        Path tmp = dir.resolve(file.getFileName() + ".compact");
+        long count = 0;
+        try (FileChannel out = open(tmp)) {
+            out.truncate(0);
+            OutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16);
+            for (ChatServer.FileMeta meta : entries) {
+                ByteBuffer record = record(putPayload(meta));
+                buffered.write(record.array(), 0, record.limit());
+                count++;
+            }
+            buffered.flush();
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.close();
+        log = open(file);
+        log.position(log.size());
+        live = count;
+        dead = 0;
+    }
+
+    synchronized void close() throws IOException {
+        log.close();
+    }
+
+    private void append(ByteBuffer payload) throws IOException {
+        ByteBuffer record = record(payload);
+        while (record.hasRemaining()) log.write(record);
+        log.force(false);
+    }
+
+    // [length][crc32c][payload] for a payload that has just been filled
+    private static ByteBuffer record(ByteBuffer payload) {
+        payload.flip();
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        return ByteBuffer.allocate(8 + payload.remaining())
+                .putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload).flip();
+    }
+
+    private static int utf8Length(String... values) {
+        int n = 0;
+        for (String v : values) n += v.getBytes(StandardCharsets.UTF_8).length;
+        return n;
+    }
+
+    private static void writeString(ByteBuffer buf, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        buf.putShort((short) b.length);
+        buf.put(b);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = Short.toUnsignedInt(buf.getShort());
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
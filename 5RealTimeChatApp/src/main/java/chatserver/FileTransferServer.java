@@ -0,0 +1,363 @@
+package chatserver;
+
+import chatproto.Compression;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Header lines are text. Downloads go FileChannel -> SocketChannel without a heap copy; uploads
+// are hashed as they stream in so identical content is stored once (see AttachmentStore).
+//   UPLOAD:room:filename:size:sender         -> body follows, reply OK:id
+//   UPLOADHASH:room:filename:size:sha256:sender
+//                                            -> OK:id if that content is stored already, otherwise
+//                                               SEND, then the body, then OK:id or ERROR:HashMismatch
+//   DOWNLOAD:id                              -> OK:filename:size, then the whole file
+//   DOWNLOAD:id:offset[:length]              -> PARTIAL:filename:size:offset:length, then that range
+// UPLOAD, UPLOADHASH and DOWNLOAD take a +deflate suffix (UPLOAD+deflate:...). An upload body is
+// then a raw deflate stream; a download is compressed unless the file already is, which the
+// reply shows as OK+deflate:... or PARTIAL+deflate:... Sizes, ranges and hashes always refer to
+// the uncompressed file, and rate limits count file bytes. A compressed download reads through
+// a heap buffer instead of going channel to channel.
+// Transfers run on a worker pool; at most maxTransfers connections are in flight, beyond that
+// the acceptor stops accepting and new clients wait in the listen backlog.
+class FileTransferServer implements Runnable {
+    private static final int MAX_HEADER = 4096;
+    private static final long UNLIMITED_CHUNK = 8L << 20;
+    private static final int RECEIVE_BUFFER = 64 * 1024;
+
+    private final ChatServer server;
+    private final AttachmentStore store;
+    private final ServerSocketChannel fileSocket;
+    private final ExecutorService workers;
+    private final Semaphore slots;
+    private final long perConnectionRate;
+    private final Throttle globalThrottle;
+    private final int deflateLevel;
+    private final FileTransferStats stats = new FileTransferStats();
+
+    FileTransferServer(ChatServer server, ServerConfig config, AttachmentStore store) throws IOException {
+        this.server = server;
+        this.store = store;
+        this.fileSocket = ServerSocketChannel.open();
+        fileSocket.bind(new InetSocketAddress(config.filePort));
+
+        boolean virtual = config.fileWorkers == 0
+                || (config.fileWorkers < 0 && config.transport == ServerConfig.Transport.VIRTUAL);
+        this.workers = virtual
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(config.fileWorkers < 0 ? 16 : config.fileWorkers);
+        this.slots = new Semaphore(config.maxTransfers);
+        this.perConnectionRate = config.fileRatePerConnection;
+        this.globalThrottle = Throttle.of(config.fileRateTotal);
+        this.deflateLevel = config.deflateLevel;
+    }
+
+    FileTransferStats stats() {
+        return stats;
+    }
+
+    // Stops taking new transfers; those in progress run to completion.
+    void close() {
+        try {
+            fileSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                slots.acquire();
+                SocketChannel s;
+                try {
+                    s = fileSocket.accept();
+                } catch (IOException e) {
+                    slots.release();
+                    if (!ChatServer.retryAccept(fileSocket, e)) return;
+                    continue;
+                }
+                stats.queued.increment();
+                workers.execute(() -> {
+                    stats.queued.decrement();
+                    stats.active.incrementAndGet();
+                    try {
+                        handle(s);
+                        stats.completed.increment();
+                    } catch (Exception e) {
+                        stats.failed.increment();
+                    } finally {
+                        stats.active.decrementAndGet();
+                        slots.release();
+                    }
+                });
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(SocketChannel s) throws IOException, InterruptedException {
+        try (s) {
+            Throttle throttle = Throttle.of(perConnectionRate);
+            ByteBuffer in = ByteBuffer.allocate(MAX_HEADER);
+            String header = readHeader(s, in);
+            if (header == null) return;
+            boolean deflate = false;
+            int verbEnd = header.indexOf(':');
+            if (verbEnd > 0 && header.startsWith(Compression.FILE_OPTION, verbEnd - Compression.FILE_OPTION.length())) {
+                header = header.substring(0, verbEnd - Compression.FILE_OPTION.length()) + header.substring(verbEnd);
+                deflate = true;
+            }
+
+            if (header.startsWith("UPLOADHASH:")) {
+                String[] p = header.split(":", 6);
+                String room = p[1];
+                String filename = p[2];
+                long filesize = Long.parseLong(p[3]);
+                String hash = p[4].toLowerCase();
+                String sender = p[5];
+                if (!AttachmentStore.isHash(hash)) {
+                    writeLine(s, "ERROR:BadHash");
+                    return;
+                }
+
+                // content already stored: nothing to transfer
+                if (store.retainIfPresent(hash)) {
+                    if (Files.size(store.path(hash)) == filesize) {
+                        writeLine(s, "OK:" + register(hash, filename, filesize, sender, room));
+                        return;
+                    }
+                    store.release(hash);
+                }
+                writeLine(s, "SEND");
+                receive(s, in, filesize, throttle, deflate, hash, room, filename, sender);
+            }
+
+            else if (header.startsWith("UPLOAD:")) {
+                String[] p = header.split(":", 5);
+                String room = p[1];
+                String filename = p[2];
+                long filesize = Long.parseLong(p[3]);
+                String sender = p[4];
+
+                receive(s, in, filesize, throttle, deflate, null, room, filename, sender);
+            }
+
+            else if (header.startsWith("DOWNLOAD:")) {
+                String[] p = header.substring(9).split(":");
+                ChatServer.FileMeta meta = server.getFileMeta(p[0]);
+
+                if (meta == null) {
+                    writeLine(s, "ERROR:NotFound");
+                    return;
+                }
+
+                long offset = 0;
+                long length = meta.size;
+                if (p.length > 1) {
+                    offset = Long.parseLong(p[1]);
+                    length = p.length > 2 ? Long.parseLong(p[2]) : meta.size - offset;
+                    if (offset < 0 || length < 0 || length > meta.size - offset) {
+                        writeLine(s, "ERROR:BadRange");
+                        return;
+                    }
+                }
+
+                try (FileChannel fc = FileChannel.open(meta.path, StandardOpenOption.READ)) {
+                    boolean compress = deflate && deflateLevel > 0 && !alreadyCompressed(fc, meta.filename);
+                    String option = compress ? Compression.FILE_OPTION : "";
+                    if (p.length > 1) {
+                        writeLine(s, "PARTIAL" + option + ":" + meta.filename + ":" + meta.size + ":" + offset + ":" + length);
+                    } else {
+                        writeLine(s, "OK" + option + ":" + meta.filename + ":" + meta.size);
+                    }
+                    if (compress) {
+                        sendDeflated(fc, s, offset, length, throttle);
+                        return;
+                    }
+                    long sent = 0;
+                    while (sent < length) {
+                        long chunk = pace(throttle, length - sent);
+                        long n = fc.transferTo(offset + sent, chunk, s);
+                        if (n <= 0) break;
+                        sent += n;
+                        stats.bytesOut.add(n);
+                    }
+                    if (sent < length) throw new IOException("Download ended after " + sent + " of " + length + " bytes");
+                }
+            }
+        }
+    }
+
+    // Streams the body into a temp file while hashing it, then hands it to the attachment store.
+    private void receive(SocketChannel s, ByteBuffer in, long filesize, Throttle throttle, boolean deflated,
+                         String expectedHash, String room, String filename, String sender) throws IOException, InterruptedException {
+        Path temp = store.newTempFile();
+        MessageDigest digest = AttachmentStore.newDigest();
+        Inflater inflater = deflated ? Compression.newInflater() : null;
+        long received = 0;
+        try {
+            try (FileChannel fc = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                // bytes that arrived together with the header are already in the buffer
+                if (inflater != null) {
+                    inflater.setInput(in);
+                } else {
+                    if (in.remaining() > filesize) in.limit(in.position() + (int) filesize);
+                    received += in.remaining();
+                    digest.update(in.duplicate());
+                    while (in.hasRemaining()) fc.write(in);
+                }
+
+                ByteBuffer buf = ByteBuffer.allocate(RECEIVE_BUFFER);
+                ByteBuffer compressed = inflater != null ? ByteBuffer.allocate(RECEIVE_BUFFER) : null;
+                while (received < filesize) {
+                    buf.clear();
+                    buf.limit((int) pace(throttle, Math.min(buf.capacity(), filesize - received)));
+                    int n = inflater != null ? inflate(s, inflater, compressed, buf) : s.read(buf);
+                    if (n < 0) break;
+                    buf.flip();
+                    digest.update(buf.duplicate());
+                    while (buf.hasRemaining()) fc.write(buf);
+                    received += n;
+                    if (inflater == null) stats.bytesIn.add(n);
+                }
+            }
+            if (received < filesize) throw new IOException("Upload ended after " + received + " of " + filesize + " bytes");
+
+            String hash = AttachmentStore.hex(digest.digest());
+            if (expectedHash != null && !expectedHash.equals(hash)) {
+                writeLine(s, "ERROR:HashMismatch");
+                return;
+            }
+            store.commit(temp, hash);
+            writeLine(s, "OK:" + register(hash, filename, filesize, sender, room));
+        } finally {
+            Files.deleteIfExists(temp);
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    // Fills out with upload bytes, reading compressed input from the socket as the inflater
+    // runs dry; -1 if the stream ends first.
+    private int inflate(SocketChannel s, Inflater inflater, ByteBuffer compressed, ByteBuffer out) throws IOException {
+        try {
+            while (true) {
+                int n = inflater.inflate(out);
+                if (n > 0) return n;
+                if (inflater.finished()) return -1;
+                if (inflater.needsInput()) {
+                    compressed.clear();
+                    int r = s.read(compressed);
+                    if (r < 0) return -1;
+                    stats.bytesIn.add(r);
+                    inflater.setInput(compressed.flip());
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Bad deflate stream: " + e.getMessage());
+        }
+    }
+
+    // Judged by name and by the magic number at the start of the file, not of the range.
+    private static boolean alreadyCompressed(FileChannel fc, String filename) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(16);
+        while (head.hasRemaining() && fc.read(head, head.position()) > 0) {}
+        return Compression.isCompressed(filename, head.array(), head.position());
+    }
+
+    // The range is read through a heap buffer and written as one finished deflate stream.
+    private void sendDeflated(FileChannel fc, SocketChannel s, long offset, long length, Throttle throttle)
+            throws IOException, InterruptedException {
+        Deflater deflater = Compression.newDeflater(deflateLevel);
+        try {
+            ByteBuffer in = ByteBuffer.allocate(RECEIVE_BUFFER);
+            ByteBuffer out = ByteBuffer.allocate(RECEIVE_BUFFER);
+            long read = 0;
+            while (read < length) {
+                in.clear();
+                in.limit((int) pace(throttle, Math.min(in.capacity(), length - read)));
+                int n = fc.read(in, offset + read);
+                if (n <= 0) break;
+                read += n;
+                deflater.setInput(in.flip());
+                while (!deflater.needsInput()) writeDeflated(s, deflater, out);
+            }
+            // no end marker for a short read: the client must not take it for the whole range
+            if (read < length) throw new IOException("Download ended after " + read + " of " + length + " bytes");
+            deflater.finish();
+            while (!deflater.finished()) writeDeflated(s, deflater, out);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeDeflated(SocketChannel s, Deflater deflater, ByteBuffer out) throws IOException {
+        out.clear();
+        deflater.deflate(out);
+        out.flip();
+        stats.bytesOut.add(out.remaining());
+        while (out.hasRemaining()) s.write(out);
+    }
+
+    // The caller already holds a blob reference for hash; it is handed back if the index write fails.
+    private String register(String hash, String filename, long size, String sender, String room) throws IOException {
+        String id = UUID.randomUUID().toString();
+        try {
+            server.registerUploadedFile(new ChatServer.FileMeta(id, hash, store.path(hash), filename, size, sender, room));
+        } catch (IOException e) {
+            store.release(hash);
+            throw e;
+        }
+        return id;
+    }
+
+    // Waits for bandwidth under both limits and returns how many bytes may be moved now.
+    private long pace(Throttle perConnection, long remaining) throws InterruptedException {
+        long chunk = UNLIMITED_CHUNK;
+        if (perConnection != null) chunk = Math.min(chunk, perConnection.chunkSize());
+        if (globalThrottle != null) chunk = Math.min(chunk, globalThrottle.chunkSize());
+        chunk = Math.min(chunk, remaining);
+        if (perConnection != null) perConnection.acquire(chunk);
+        if (globalThrottle != null) globalThrottle.acquire(chunk);
+        return chunk;
+    }
+
+    // Reads up to the first newline; anything after it is left in the buffer for the body.
+    private String readHeader(SocketChannel s, ByteBuffer in) throws IOException {
+        int scanned = 0;
+        while (true) {
+            for (; scanned < in.position(); scanned++) {
+                if (in.get(scanned) == '\n') {
+                    int end = scanned > 0 && in.get(scanned - 1) == '\r' ? scanned - 1 : scanned;
+                    String header = new String(in.array(), 0, end, StandardCharsets.UTF_8);
+                    in.flip();
+                    in.position(scanned + 1);
+                    return header;
+                }
+            }
+            if (!in.hasRemaining() || s.read(in) < 0) return null;
+        }
+    }
+
+    private void writeLine(SocketChannel s, String line) throws IOException {
+        ByteBuffer out = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (out.hasRemaining()) s.write(out);
+    }
+}
@@ -0,0 +1,41 @@
+package chatserver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters kept by FileTransferServer; safe to read from any thread.
+public class FileTransferStats {
+    private final long startNanos = System.nanoTime();
+    final AtomicInteger active = new AtomicInteger();
+    final LongAdder queued = new LongAdder();
+    final LongAdder completed = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+
+    public int getActiveTransfers() { return active.get(); }
+
+    // Connections accepted but still waiting for a transfer slot.
+    public long getQueuedTransfers() { return queued.sum(); }
+
+    public long getCompletedTransfers() { return completed.sum(); }
+
+    public long getFailedTransfers() { return failed.sum(); }
+
+    public long getBytesIn() { return bytesIn.sum(); }
+
+    public long getBytesOut() { return bytesOut.sum(); }
+
+    // Average since startup, both directions.
+    public double getThroughputBytesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return (bytesIn.sum() + bytesOut.sum()) / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return "active=" + getActiveTransfers() + " queued=" + getQueuedTransfers()
+                + " completed=" + getCompletedTransfers() + " failed=" + getFailedTransfers()
+                + " in=" + getBytesIn() + " out=" + getBytesOut();
+    }
+}
@@ -0,0 +1,111 @@
+package chatserver;
+
+import chatproto.Wire;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// One outbound message, encoded once per protocol and shared read-only by every recipient.
+// The text and BIN1 encodings are built on first use, so a room of text clients never pays
+// for the binary one and the other way round.
+public final class Frame {
+    private final byte type;
+    private final String[] fields;
+    private final long createdNanos;
+    private volatile ByteBuffer bytes;
+    private volatile Frame binary;
+
+    private Frame(byte type, String[] fields) {
+        this.type = type;
+        this.fields = fields;
+        this.createdNanos = System.nanoTime();
+    }
+
+    private Frame(ByteBuffer bytes, long createdNanos) {
+        this.type = Wire.LINE;
+        this.fields = null;
+        this.bytes = bytes;
+        this.createdNanos = createdNanos;
+    }
+
+    public static Frame of(String line) {
+        return new Frame(Wire.LINE, new String[] {line});
+    }
+
+    public static Frame msg(String ts, String room, String user, String text) {
+        return new Frame(Wire.MSG, new String[] {ts, room, user, text});
+    }
+
+    public static Frame pm(String ts, String from, String text) {
+        return new Frame(Wire.PM, new String[] {ts, from, text});
+    }
+
+    // An already framed text line; not copied.
+    static Frame wrap(ByteBuffer framed) {
+        return new Frame(framed.asReadOnlyBuffer(), System.nanoTime());
+    }
+
+    // The BIN1 payload without its length prefix (type byte, then fields), which is how room
+    // history stores a message: typed, so a replay reaches BIN1 clients as MSG, not as a line.
+    ByteBuffer payload() {
+        ByteBuffer b = binary().buffer();
+        return b.position(b.position() + Wire.varintSize(Wire.payloadLength(b, b.position())));
+    }
+
+    // Back from payload(). A record that is not typed is a text line kept by an older version
+    // of the history and goes out as it was stored.
+    static Frame fromPayload(ByteBuffer payload) {
+        ByteBuffer in = payload.duplicate();
+        return switch (in.get()) {
+            case Wire.MSG -> msg(Wire.string(in), Wire.string(in), Wire.string(in), Wire.string(in));
+            case Wire.PM -> pm(Wire.string(in), Wire.string(in), Wire.string(in));
+            case Wire.LINE -> of(Wire.string(in));
+            default -> wrap(payload);
+        };
+    }
+
+    // System.nanoTime() when the message was created, for the send-latency metric.
+    long createdNanos() {
+        return createdNanos;
+    }
+
+    // A view with its own position, so concurrent writers never disturb each other.
+    public ByteBuffer buffer() {
+        ByteBuffer b = bytes;
+        if (b == null) bytes = b = encodeText();
+        return b.duplicate();
+    }
+
+    public int length() {
+        return buffer().remaining();
+    }
+
+    // The same message as a BIN1 frame; its buffer() holds the binary encoding.
+    public Frame binary() {
+        Frame f = binary;
+        if (f == null) {
+            ByteBuffer encoded = fields != null ? Wire.encode(type, fields) : Wire.encode(Wire.LINE, textLine());
+            binary = f = new Frame(encoded.asReadOnlyBuffer(), createdNanos);
+        }
+        return f;
+    }
+
+    private ByteBuffer encodeText() {
+        StringBuilder line = new StringBuilder();
+        if (type == Wire.MSG) line.append("MSG:");
+        else if (type == Wire.PM) line.append("PM:");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) line.append(':');
+            line.append(fields[i]);
+        }
+        byte[] framed = line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.wrap(framed).asReadOnlyBuffer();
+    }
+
+    private String textLine() {
+        ByteBuffer b = buffer();
+        byte[] line = new byte[b.remaining() - 1];
+        b.get(line);
+        return new String(line, StandardCharsets.UTF_8);
+    }
+}
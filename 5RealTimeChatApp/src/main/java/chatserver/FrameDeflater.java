@@ -0,0 +1,77 @@
+package chatserver;
+
+import chatproto.Compression;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.Deflater;
+
+// Compressor for one client's outbound stream. The deflate context carries over from write to
+// write, so a room name, user name or phrase seen in the last 32 KB costs a few bits instead of
+// its full length. Each batch ends with a sync flush, which makes everything written so far
+// decodable by the client at the price of a few bytes, so compression never holds a message back.
+// zlib keeps about 256 KB of native state per context, so it is only set up once the stream
+// starts compressing; end() frees it.
+public final class FrameDeflater {
+    private final int level;
+    private Deflater deflater;
+    private ByteBuffer out;
+    private int lastInput;
+
+    public FrameDeflater(int level) {
+        this.level = level;
+    }
+
+    // How many frames at the head of the batch go out uncompressed. Compression starts once the
+    // frame given to Connection.deflateAfter() is among them; from then on it is 0.
+    int plainFrames(List<Frame> batch, Frame deflateAfter) {
+        if (deflater != null) return 0;
+        int last = deflateAfter == null ? -1 : batch.indexOf(deflateAfter);
+        if (last < 0) return batch.size();
+        start();
+        return last + 1;
+    }
+
+    // Compresses frames from index `from` to the end of the batch into one buffer, valid until
+    // the next call.
+    public ByteBuffer compress(List<Frame> batch, int from) {
+        if (deflater == null) start();
+        out.clear();
+        lastInput = 0;
+        for (int i = from; i < batch.size(); i++) {
+            ByteBuffer in = batch.get(i).buffer();
+            lastInput += in.remaining();
+            deflater.setInput(in);
+            while (!deflater.needsInput()) {
+                if (!out.hasRemaining()) grow();
+                deflater.deflate(out, Deflater.NO_FLUSH);
+            }
+        }
+        // a sync flush that fills the buffer exactly may have more to give
+        do {
+            if (!out.hasRemaining()) grow();
+            deflater.deflate(out, Deflater.SYNC_FLUSH);
+        } while (!out.hasRemaining());
+        return out.flip();
+    }
+
+    // Uncompressed bytes taken by the last compress().
+    public int lastInput() {
+        return lastInput;
+    }
+
+    public void end() {
+        if (deflater != null) deflater.end();
+    }
+
+    private void start() {
+        deflater = Compression.newDeflater(level);
+        out = ByteBuffer.allocate(4096);
+    }
+
+    private void grow() {
+        ByteBuffer bigger = ByteBuffer.allocate(out.capacity() * 2);
+        bigger.put(out.flip());
+        out = bigger;
+    }
+}
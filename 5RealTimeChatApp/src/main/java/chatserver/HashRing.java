@@ -0,0 +1,39 @@
+package chatserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Consistent hashing of room and user names onto cluster nodes. Each node gets many points on
+// the ring so keys spread evenly, and adding or removing a node only moves the keys next to
+// its points.
+class HashRing {
+    private static final int POINTS_PER_NODE = 128;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    HashRing(Collection<String> nodes) {
+        for (String node : nodes) {
+            for (int i = 0; i < POINTS_PER_NODE; i++) ring.put(hash(node + "#" + i), node);
+        }
+    }
+
+    String ownerOf(String key) {
+        Map.Entry<Long, String> e = ring.ceilingEntry(hash(key));
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    // 64-bit FNV-1a with a final avalanche step, so similar names land far apart.
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,104 @@
+package chatserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free latency histogram in nanoseconds with HDR-style buckets: 16 linear sub-buckets per
+// power of two, so any value is reported within 6.25%. Recording is one bucket increment;
+// threads are spread over stripes so busy writers don't all hit the same counter.
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 36;  // values are capped at about 137 s
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+    private static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * STRIPES);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        else if (nanos > MAX_VALUE) nanos = MAX_VALUE;
+        int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+        counts.getAndIncrement(stripe * BUCKETS + bucket(nanos));
+        sum.add(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) m = max.get();
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Largest value that falls into the bucket.
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    // Not atomic with concurrent record() calls, which is fine for monitoring.
+    public Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long c = counts.get(i);
+            merged[i % BUCKETS] += c;
+            count += c;
+        }
+        return new Snapshot(merged, count, sum.sum(), max.get());
+    }
+
+    // Getters in microseconds, which is what JMX and the stats endpoint show.
+    public static class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sumNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] buckets, long count, long sumNanos, long maxNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() { return count; }
+
+        public double getMeanMicros() { return count == 0 ? 0 : sumNanos / 1e3 / count; }
+
+        public double getP50Micros() { return percentile(50); }
+
+        public double getP90Micros() { return percentile(90); }
+
+        public double getP99Micros() { return percentile(99); }
+
+        public double getP999Micros() { return percentile(99.9); }
+
+        public double getMaxMicros() { return maxNanos / 1e3; }
+
+        public double percentile(double p) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(count * p / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(1, rank)) return Math.min(upperBound(i), maxNanos) / 1e3;
+            }
+            return maxNanos / 1e3;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                    count, getMeanMicros(), getP50Micros(), getP99Micros(), getP999Micros(), getMaxMicros());
+        }
+    }
+}
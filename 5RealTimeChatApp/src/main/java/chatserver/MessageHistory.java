@@ -0,0 +1,167 @@
+package chatserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Per-room RoomLogs under <dir>/<room>. Appends only fill the room's buffer; the "history-flush"
+// thread writes all buffers out and fsyncs them together every fsyncMillis (group commit), so a
+// crash loses at most that window. fsyncMillis 0 forces on every append instead.
+// Logs idle for a minute are closed, and segments past the retention age are deleted.
+class MessageHistory {
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long RETENTION_CHECK_MILLIS = 60_000;
+
+    private final Path dir;
+    private final long fsyncMillis;
+    private final long segmentBytes;
+    private final long retentionMillis;
+    private final int maxReplay;
+    private final ConcurrentHashMap<String, RoomLog> logs = new ConcurrentHashMap<>();
+
+    MessageHistory(ServerConfig config) {
+        this.dir = Path.of(config.historyDir);
+        this.fsyncMillis = config.historyFsyncMillis;
+        this.segmentBytes = config.historySegmentMb << 20;
+        this.retentionMillis = TimeUnit.HOURS.toMillis(config.historyRetentionHours);
+        this.maxReplay = config.historyMaxReplay;
+        Thread.ofPlatform().daemon().name("history-flush").start(this::flushLoop);
+    }
+
+    int maxReplay() {
+        return maxReplay;
+    }
+
+    // Returns the room's log locked; the caller unlocks it. A log closed for idleness in the
+    // meantime is replaced by a fresh one.
+    RoomLog lock(String room) throws IOException {
+        while (true) {
+            // opened inside computeIfAbsent: two RoomLogs recovering the same directory at
+            // once could truncate each other's records
+            RoomLog log;
+            try {
+                log = logs.computeIfAbsent(room, r -> {
+                    try {
+                        RoomLog opened = new RoomLog(dir.resolve(directoryName(r)), segmentBytes);
+                        // rooms nobody used for a while were skipped by the periodic retention pass
+                        if (retentionMillis > 0) opened.deleteOlderThan(System.currentTimeMillis() - retentionMillis);
+                        return opened;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            log.lock();
+            if (!log.isClosed()) return log;
+            log.unlock();
+        }
+    }
+
+    void append(RoomLog log, long timestamp, Frame frame) throws IOException {
+        log.append(timestamp, frame);
+        if (fsyncMillis == 0) log.force();
+    }
+
+    // Writes out and fsyncs every open log and closes it, for a clean shutdown.
+    void close() {
+        for (Map.Entry<String, RoomLog> e : logs.entrySet()) {
+            RoomLog log = e.getValue();
+            log.lock();
+            try {
+                if (log.isClosed()) continue;
+                log.close();
+                logs.remove(e.getKey(), log);
+            } catch (IOException ex) {
+                System.err.println("History close failed for room " + e.getKey() + ": " + ex.getMessage());
+            } finally {
+                log.unlock();
+            }
+        }
+    }
+
+    private record Pending(String room, RoomLog log, FileChannel[] channels, long upTo) {}
+
+    // Room names become directory names as-is when they are plain; anything else is hex encoded.
+    static String directoryName(String room) {
+        boolean plain = !room.isEmpty() && !room.startsWith("x-") && !room.startsWith(".");
+        for (int i = 0; plain && i < room.length(); i++) {
+            char c = room.charAt(i);
+            plain = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+        }
+        return plain ? room : "x-" + HexFormat.of().formatHex(room.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void flushLoop() {
+        long nextRetention = 0;
+        while (true) {
+            try {
+                Thread.sleep(Math.max(fsyncMillis, 1));
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<Pending> toForce = new ArrayList<>();
+            for (Map.Entry<String, RoomLog> e : logs.entrySet()) {
+                RoomLog log = e.getValue();
+                log.lock();
+                try {
+                    if (log.needsForce()) {
+                        log.writeBuffers();
+                        toForce.add(new Pending(e.getKey(), log, log.channels(), log.nextOffset()));
+                    } else if (System.nanoTime() - log.lastUsedNanos > IDLE_NANOS) {
+                        log.close();
+                        logs.remove(e.getKey(), log);
+                    }
+                } catch (IOException ex) {
+                    System.err.println("History write failed for room " + e.getKey() + ": " + ex.getMessage());
+                } finally {
+                    log.unlock();
+                }
+            }
+            // fsync outside the room locks so appends keep flowing while the disk catches up
+            for (Pending p : toForce) {
+                try {
+                    for (FileChannel ch : p.channels) ch.force(false);
+                } catch (ClosedChannelException ignored) {
+                    // closed by an idle close, which forced it already, or deleted by retention
+                } catch (IOException ex) {
+                    // left due, so the next tick tries again
+                    System.err.println("History fsync failed for room " + p.room + ": " + ex.getMessage());
+                    continue;
+                }
+                p.log.lock();
+                try {
+                    p.log.forced(p.upTo);
+                } finally {
+                    p.log.unlock();
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (retentionMillis > 0 && now >= nextRetention) {
+                nextRetention = now + RETENTION_CHECK_MILLIS;
+                for (Map.Entry<String, RoomLog> e : logs.entrySet()) {
+                    RoomLog log = e.getValue();
+                    log.lock();
+                    try {
+                        if (!log.isClosed()) log.deleteOlderThan(now - retentionMillis);
+                    } catch (IOException ex) {
+                        System.err.println("History retention failed for room " + e.getKey() + ": " + ex.getMessage());
+                    } finally {
+                        log.unlock();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package chatserver;
+
+import chatproto.Wire;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Non-blocking transport: one acceptor thread plus a few selector threads serve every connection.
+class NioTransport {
+    private static final int INITIAL_READ_BUFFER = 512;
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int MAX_BATCH = 64;
+
+    private final ChatServer server;
+    private final ServerSocketChannel serverChannel;
+    private final Worker[] workers;
+
+    NioTransport(ChatServer server, ServerSocketChannel serverChannel, int ioThreads) throws IOException {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.workers = new Worker[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            workers[i] = new Worker();
+            Thread t = new Thread(workers[i], "nio-worker-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    // A client that fails during accept or setup is dropped on its own; only closing the listener
+    // ends the loop.
+    void acceptLoop() {
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            SocketChannel ch;
+            try {
+                ch = serverChannel.accept();
+            } catch (IOException e) {
+                if (!ChatServer.retryAccept(serverChannel, e)) return;
+                continue;
+            }
+            try {
+                server.configure(ch);
+                ch.configureBlocking(false);
+            } catch (IOException e) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                }
+                continue;
+            }
+            workers[next].register(ch);
+            next = (next + 1) % workers.length;
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingAccepts = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+        // completions handed back from other threads, run on this one
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+        // connections whose reads are held back by a rate limit, by resume time; worker thread only
+        private final PriorityQueue<NioConnection> paused = new PriorityQueue<>(Comparator.comparingLong(c -> c.resumeAt));
+
+        Worker() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel ch) {
+            pendingAccepts.add(ch);
+            selector.wakeup();
+        }
+
+        void scheduleWrite(NioConnection c) {
+            pendingWrites.add(c);
+            selector.wakeup();
+        }
+
+        void post(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    NioConnection next = paused.peek();
+                    if (next == null) selector.select();
+                    else selector.select(Math.max(1, (next.resumeAt - System.nanoTime() + 999_999) / 1_000_000));
+                    processPending();
+                    resumeDue();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection c = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) c.onReadable();
+                            if (key.isValid() && key.isWritable()) c.onWritable();
+                        } catch (IOException | CancelledKeyException e) {
+                            c.closeNow();
+                        } catch (RuntimeException e) {
+                            // a bug in one connection's handling costs that connection, not
+                            // this thread and every other connection on it
+                            e.printStackTrace();
+                            c.closeNow();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        void pause(NioConnection c) {
+            paused.add(c);
+        }
+
+        private void resumeDue() {
+            long now = System.nanoTime();
+            NioConnection c;
+            while ((c = paused.peek()) != null && c.resumeAt - now <= 0) {
+                paused.poll();
+                try {
+                    c.resumeReading();
+                } catch (IOException | CancelledKeyException e) {
+                    c.closeNow();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    c.closeNow();
+                }
+            }
+        }
+
+        private void processPending() {
+            SocketChannel ch;
+            while ((ch = pendingAccepts.poll()) != null) {
+                NioConnection c = null;
+                try {
+                    c = new NioConnection(this, ch);
+                    c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                    c.handler.onOpen();
+                } catch (IOException e) {
+                    try { ch.close(); } catch (IOException ignored) {}
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    if (c != null && c.key != null) c.closeNow();
+                    else try { ch.close(); } catch (IOException ignored) {}
+                }
+            }
+            Runnable task;
+            while ((task = pendingTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            NioConnection c;
+            while ((c = pendingWrites.poll()) != null) {
+                if (c.overflowed || c.aborted) {
+                    // a stalled peer may never become writable, so drop it right here
+                    c.closeNow();
+                } else if (c.key.isValid()) {
+                    c.key.interestOps(c.key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        }
+    }
+
+    private class NioConnection implements Connection {
+        private final Worker worker;
+        private final SocketChannel channel;
+        private final ClientHandler handler;
+        private final OutboundQueue queue;
+        private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+        private final List<Frame> batch = new ArrayList<>(MAX_BATCH);
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean closeRequested;
+        private volatile boolean overflowed;
+        private volatile boolean aborted;
+        // set while a DELAY rate limit holds back reading; lines already buffered wait as well
+        private boolean readPaused;
+        private long resumeAt;
+        private volatile Frame deflateAfter;
+        private final FrameDeflater deflater = new FrameDeflater(server.config().deflateLevel);  // worker thread only
+        private ByteBuffer readBuf = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        private SelectionKey key;
+
+        NioConnection(Worker worker, SocketChannel channel) {
+            this.worker = worker;
+            this.channel = channel;
+            this.handler = new ClientHandler(this, server);
+            this.queue = new OutboundQueue(server.config().outboundQueueSize, server.config().overflowPolicy);
+        }
+
+        @Override
+        public void send(Frame frame) {
+            if (!queue.offer(frame)) {
+                if (overflowed) return;
+                overflowed = true;
+                queue.close();
+                // bypass writeScheduled: a write may already be pending on a peer that never drains
+                worker.scheduleWrite(this);
+                return;
+            }
+            requestWrite();
+        }
+
+        @Override
+        public void close() {
+            closeRequested = true;
+            queue.close();
+            requestWrite();
+        }
+
+        // closed by the worker, which owns the channel and the half-written buffers
+        @Override
+        public void abort() {
+            aborted = true;
+            queue.close();
+            worker.scheduleWrite(this);
+        }
+
+        @Override
+        public void deflateAfter(Frame last) {
+            deflateAfter = last;
+        }
+
+        // Called from the handler on the worker thread. Reading stops after the current command,
+        // like a rate-limit pause without a timer; the completion is run back on the worker.
+        @Override
+        public void resumeWhen(CompletableFuture<?> pending, Runnable then) {
+            if (pending.isDone()) {
+                then.run();
+                return;
+            }
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            pending.whenComplete((r, e) -> worker.post(() -> {
+                try {
+                    // runs even if the connection closed meanwhile, so the handler can undo its part
+                    then.run();
+                    if (!closed.get()) resumeReading();
+                } catch (IOException | CancelledKeyException ex) {
+                    closeNow();
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                    closeNow();
+                }
+            }));
+        }
+
+        @Override
+        public int queueDepth() {
+            return queue.depth();
+        }
+
+        @Override
+        public long droppedMessages() {
+            return queue.dropped();
+        }
+
+        private void requestWrite() {
+            if (writeScheduled.compareAndSet(false, true)) worker.scheduleWrite(this);
+        }
+
+        void onReadable() throws IOException {
+            int n = channel.read(readBuf);
+            if (n < 0) { closeNow(); return; }
+            handleBuffered();
+        }
+
+        void resumeReading() throws IOException {
+            if (closed.get()) return;
+            readPaused = false;
+            handleBuffered();
+            if (!readPaused && !closeRequested && !closed.get()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+
+        // Stops at the first line after close(): once LOGOUT (or a drain) has asked to close,
+        // lines the client pipelined behind it are not run, and nothing more is read.
+        private void handleBuffered() {
+            if (closeRequested) {
+                stopReading();
+                return;
+            }
+            readBuf.flip();
+            int start = readBuf.position();
+            int scanned = start;
+            while (scanned < readBuf.limit()) {
+                // the handler may switch to BIN1 after any line, so re-check per message
+                if (handler.isBinary()) {
+                    int len;
+                    try {
+                        len = Wire.payloadLength(readBuf, start);
+                    } catch (IllegalArgumentException e) {
+                        handler.send("ERROR:" + e.getMessage());
+                        closeNow();
+                        return;
+                    }
+                    int header = Wire.varintSize(len);
+                    if (len < 0 || start + header + len > readBuf.limit()) break;
+                    handler.handleFrame(readBuf.slice(start + header, len));
+                    start += header + len;
+                    scanned = start;
+                } else {
+                    if (readBuf.get(scanned++) != '\n') continue;
+                    int i = scanned - 1;
+                    int end = (i > start && readBuf.get(i - 1) == '\r') ? i - 1 : i;
+                    int from = start;
+                    start = scanned;
+                    handler.handleLine(readBuf.array(), from, end - from);
+                }
+                if (closed.get()) return;
+                if (closeRequested) break;
+                long pause = handler.takeReadPause();
+                if (pause > 0) {
+                    readPaused = true;
+                    resumeAt = System.nanoTime() + pause;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    worker.pause(this);
+                }
+                if (readPaused) break;
+            }
+            readBuf.position(start);
+            readBuf.compact();
+            if (closeRequested) {
+                stopReading();
+                return;
+            }
+            if (readPaused) return;
+
+            if (!readBuf.hasRemaining()) {
+                if (readBuf.capacity() >= MAX_LINE) {
+                    handler.send("ERROR:Line or frame too long");
+                    closeNow();
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(MAX_LINE, readBuf.capacity() * 2));
+                readBuf.flip();
+                bigger.put(readBuf);
+                readBuf = bigger;
+            } else if (readBuf.position() == 0 && readBuf.capacity() > INITIAL_READ_BUFFER) {
+                readBuf = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+            }
+        }
+
+        private void stopReading() {
+            if (key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        void onWritable() throws IOException {
+            while (true) {
+                if (writing.isEmpty()) {
+                    if (queue.poll(batch, MAX_BATCH) == 0) break;
+                    int plain = deflater.plainFrames(batch, deflateAfter);
+                    for (int i = 0; i < plain; i++) writing.add(batch.get(i).buffer());
+                    if (plain < batch.size()) {
+                        ByteBuffer compressed = deflater.compress(batch, plain);
+                        server.metrics().deflated(deflater.lastInput(), compressed.remaining());
+                        writing.add(compressed);
+                    }
+                }
+                channel.write(writing.toArray(new ByteBuffer[0]));
+                while (!writing.isEmpty() && !writing.peek().hasRemaining()) writing.poll();
+                if (!writing.isEmpty()) return;
+                // the batch is kept until fully written, for the send-latency metric
+                server.metrics().sent(batch);
+                batch.clear();
+            }
+            key.interestOps(readPaused || closeRequested ? 0 : SelectionKey.OP_READ);
+            writeScheduled.set(false);
+            if (queue.depth() > 0) {
+                requestWrite();
+            } else if (closeRequested) {
+                closeNow();
+            }
+        }
+
+        void closeNow() {
+            if (!closed.compareAndSet(false, true)) return;
+            try { channel.close(); } catch (IOException ignored) {}
+            queue.close();
+            queue.clear();
+            writing.clear();
+            deflater.end();
+            handler.cleanup();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package chatserver;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded per-client queue between broadcasting threads and the connection's writer.
+class OutboundQueue {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Frame> items = new ArrayDeque<>();
+    private final int capacity;
+    private final ServerConfig.OverflowPolicy policy;
+    private boolean closed;
+    private long dropped;
+
+    OutboundQueue(int capacity, ServerConfig.OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    // Returns false when the queue is full under DISCONNECT; the caller must then drop the client.
+    boolean offer(Frame item) {
+        lock.lock();
+        try {
+            if (closed) return true;
+            if (items.size() >= capacity) {
+                switch (policy) {
+                    case DROP_NEWEST -> { dropped++; return true; }
+                    case DROP_OLDEST -> { items.poll(); dropped++; }
+                    case DISCONNECT -> { return false; }
+                }
+            }
+            items.add(item);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits for at least one item, then moves up to max items into out.
+    // Returns false once the queue is closed and everything queued before close() has been taken.
+    boolean take(List<Frame> out, int max) throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty() && !closed) notEmpty.await();
+            return drain(out, max) > 0 || !closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Non-blocking variant of take for the selector threads.
+    int poll(List<Frame> out, int max) {
+        lock.lock();
+        try {
+            return drain(out, max);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int drain(List<Frame> out, int max) {
+        int n = 0;
+        while (n < max && !items.isEmpty()) {
+            out.add(items.poll());
+            n++;
+        }
+        return n;
+    }
+
+    // Stops accepting items; whatever is already queued is still handed out.
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            items.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int depth() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long dropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
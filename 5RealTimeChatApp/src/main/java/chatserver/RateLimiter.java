@@ -0,0 +1,79 @@
+package chatserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token buckets for chat commands, kept as a single timestamp each: a bucket is an AtomicLong
+// holding the time its tokens have been spent up to. Taking a token moves that time one
+// interval forward, from no earlier than `burst` intervals ago (a full bucket); the token is
+// free if the result is not past now. A check is one read and one CAS, with no lock and no
+// allocation.
+class RateLimiter {
+    // the longest a DELAY caller is held up; anything further out is dropped instead
+    static final long MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final long REFUSED = -1;
+
+    private final long interval;
+    private final long tolerance;
+
+    RateLimiter(long perSecond, long burst) {
+        this.interval = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        this.tolerance = Math.max(1, burst) * interval;
+    }
+
+    // The limiter for a --rate-user or --rate-room setting, or null when it is 0 or less: then
+    // connections and rooms get no bucket at all, and their commands skip the check.
+    static RateLimiter of(long perSecond, long burst) {
+        return perSecond > 0 ? new RateLimiter(perSecond, burst) : null;
+    }
+
+    // A bucket that starts full.
+    AtomicLong newBucket() {
+        return new AtomicLong(System.nanoTime() - tolerance);
+    }
+
+    // Takes one token, waiting at most maxWait for it: returns how long the caller has to wait
+    // before acting (0 if a token was free), or REFUSED without taking anything.
+    long acquire(AtomicLong bucket, long now, long maxWait) {
+        while (true) {
+            long prev = bucket.get();
+            long next = Math.max(prev, now - tolerance) + interval;
+            long wait = next - now;
+            if (wait > maxWait) return REFUSED;
+            if (bucket.compareAndSet(prev, next)) return Math.max(0, wait);
+        }
+    }
+
+    // Gives back a token taken by acquire(), when a second limiter refused the same command.
+    void refund(AtomicLong bucket) {
+        bucket.addAndGet(-interval);
+    }
+
+    // Per-room buckets, shared by every member on this node. A room's bucket is dropped with
+    // the room itself, so the map never holds more entries than there are rooms.
+    static class Rooms {
+        private final RateLimiter limiter;
+        private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+        Rooms(RateLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        RateLimiter limiter() {
+            return limiter;
+        }
+
+        AtomicLong bucket(String room) {
+            return buckets.computeIfAbsent(room, r -> limiter.newBucket());
+        }
+
+        void remove(String room) {
+            buckets.remove(room);
+        }
+
+        int size() {
+            return buckets.size();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package chatserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+// Message history of one room: a directory of segment files named after their first offset.
+//   <base>.log  records [int length][int crc32c][long offset][long timestamp][Frame.payload()]
+//   <base>.idx  sparse entries [long offset][long timestamp][int position], one per INDEX_INTERVAL bytes
+// Appends go to an in-memory buffer that MessageHistory writes out and fsyncs in groups. Writing
+// the buffer out (which read() also does) is not a sync: only force() and forced() move
+// forcedOffset, so a record stays due for an fsync until one has really covered it.
+// Every method must be called with lock() held.
+class RoomLog {
+    private static final int HEADER = 24;
+    private static final int INDEX_ENTRY = 20;
+    private static final int INDEX_INTERVAL = 4096;
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ByteBuffer logBuf = ByteBuffer.allocate(WRITE_BUFFER);
+    private final ByteBuffer idxBuf = ByteBuffer.allocate(INDEX_ENTRY * 256);
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER);
+    private final CRC32C crc = new CRC32C();
+    private Segment active;
+    private long nextOffset;
+    private long lastTimestamp;
+    private long forcedOffset;
+    private boolean closed;
+    long lastUsedNanos = System.nanoTime();
+
+    RoomLog(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path p : files) {
+                String name = p.getFileName().toString();
+                bases.add(Long.parseLong(name.substring(0, name.length() - 4)));
+            }
+        }
+        bases.sort(null);
+        for (long base : bases) {
+            Segment s = new Segment(base);
+            s.recover();
+            segments.put(base, s);
+        }
+        if (segments.isEmpty()) {
+            active = new Segment(0);
+            segments.put(0L, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        nextOffset = active.endOffset;
+        forcedOffset = nextOffset;
+        lastTimestamp = active.lastTimestamp;
+    }
+
+    void lock() { lock.lock(); }
+
+    void unlock() { lock.unlock(); }
+
+    boolean isClosed() { return closed; }
+
+    long nextOffset() { return nextOffset; }
+
+    // Records below this offset are known to be on disk.
+    long forcedOffset() { return forcedOffset; }
+
+    boolean needsForce() { return forcedOffset < nextOffset; }
+
+    // An fsync of channels() that started after writeBuffers() had covered offset has completed.
+    void forced(long offset) { forcedOffset = Math.max(forcedOffset, offset); }
+
+    void append(long timestamp, Frame frame) throws IOException {
+        // keep timestamps monotonic per room so time lookups can binary search
+        timestamp = Math.max(timestamp, lastTimestamp);
+        ByteBuffer payload = frame.payload();
+        int length = HEADER + payload.remaining();
+
+        if (active.size() > 0 && active.size() + length > segmentBytes) roll();
+        if (active.size() - active.lastIndexedPosition >= INDEX_INTERVAL || active.indexCount == 0) {
+            addIndexEntry(nextOffset, timestamp, active.size());
+        }
+        if (logBuf.remaining() < length) writeBuffers();
+
+        crc.reset();
+        header.clear();
+        header.putInt(length - 8).putInt(0).putLong(nextOffset).putLong(timestamp);
+        crc.update(header.array(), 8, 16);
+        crc.update(payload.duplicate());
+        header.putInt(4, (int) crc.getValue());
+        header.flip();
+
+        if (logBuf.remaining() >= length) {
+            logBuf.put(header).put(payload);
+        } else {
+            // larger than the whole buffer: write straight through
+            ByteBuffer[] record = {header, payload};
+            while (payload.hasRemaining()) active.written += active.channel.write(record);
+        }
+        active.lastTimestamp = timestamp;
+        active.endOffset = ++nextOffset;
+        lastTimestamp = timestamp;
+        lastUsedNanos = System.nanoTime();
+    }
+
+    // Frames from the first message at or after sinceMillis (if >= 0), limited to the newest `last`.
+    List<Frame> read(int last, long sinceMillis) throws IOException {
+        writeBuffers();
+        lastUsedNanos = System.nanoTime();
+        long from = Math.max(0, nextOffset - last);
+        if (sinceMillis >= 0) from = Math.max(from, offsetAt(sinceMillis));
+
+        List<Frame> frames = new ArrayList<>();
+        Map.Entry<Long, Segment> start = segments.floorEntry(from);
+        if (start == null) start = segments.firstEntry();
+        for (Segment s : segments.tailMap(start.getKey(), true).values()) {
+            if (s.size() == 0) continue;
+            MappedByteBuffer map = s.channel.map(FileChannel.MapMode.READ_ONLY, 0, s.size());
+            int pos = s.positionBefore(from);
+            while (pos < s.size()) {
+                int len = map.getInt(pos);
+                long offset = map.getLong(pos + 8);
+                if (offset >= from) {
+                    frames.add(Frame.fromPayload(map.slice(pos + HEADER, len + 8 - HEADER)));
+                }
+                pos += len + 8;
+            }
+        }
+        return frames;
+    }
+
+    // Offset of the first message with timestamp >= millis, or nextOffset if there is none.
+    private long offsetAt(long millis) throws IOException {
+        for (Segment s : segments.values()) {
+            if (s.lastTimestamp < millis || s.size() == 0) continue;
+            MappedByteBuffer map = s.channel.map(FileChannel.MapMode.READ_ONLY, 0, s.size());
+            int pos = s.positionBeforeTime(millis);
+            while (pos < s.size()) {
+                if (map.getLong(pos + 16) >= millis) return map.getLong(pos + 8);
+                pos += map.getInt(pos) + 8;
+            }
+        }
+        return nextOffset;
+    }
+
+    // Moves buffered records to the segment files; they are not synced until force() or forced().
+    void writeBuffers() throws IOException {
+        logBuf.flip();
+        while (logBuf.hasRemaining()) active.written += active.channel.write(logBuf);
+        logBuf.clear();
+        idxBuf.flip();
+        while (idxBuf.hasRemaining()) active.index.write(idxBuf);
+        idxBuf.clear();
+    }
+
+    void force() throws IOException {
+        writeBuffers();
+        active.channel.force(false);
+        active.index.force(false);
+        forcedOffset = nextOffset;
+    }
+
+    FileChannel[] channels() {
+        return new FileChannel[] {active.channel, active.index};
+    }
+
+    // Deletes whole segments whose newest message is older than cutoff; the active one stays.
+    void deleteOlderThan(long cutoffMillis) throws IOException {
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active || oldest.lastTimestamp >= cutoffMillis) break;
+            segments.pollFirstEntry();
+            oldest.delete();
+        }
+    }
+
+    void close() throws IOException {
+        force();
+        for (Segment s : segments.values()) s.close();
+        closed = true;
+    }
+
+    private void roll() throws IOException {
+        writeBuffers();
+        active.channel.force(false);
+        active.index.force(false);
+        active = new Segment(nextOffset);
+        segments.put(nextOffset, active);
+    }
+
+    private void addIndexEntry(long offset, long timestamp, long position) throws IOException {
+        if (idxBuf.remaining() < INDEX_ENTRY) writeBuffers();
+        idxBuf.putLong(offset).putLong(timestamp).putInt((int) position);
+        active.addIndex(offset, timestamp, (int) position);
+    }
+
+    private class Segment {
+        final long baseOffset;
+        final Path logPath;
+        final Path idxPath;
+        final FileChannel channel;
+        final FileChannel index;
+        long written;
+        long endOffset;
+        long lastTimestamp;
+        long[] idxOffsets = new long[16];
+        long[] idxTimes = new long[16];
+        int[] idxPositions = new int[16];
+        int indexCount;
+        int lastIndexedPosition;
+
+        Segment(long baseOffset) throws IOException {
+            this.baseOffset = baseOffset;
+            String name = String.format("%020d", baseOffset);
+            this.logPath = dir.resolve(name + ".log");
+            this.idxPath = dir.resolve(name + ".idx");
+            this.channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.index = FileChannel.open(idxPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.endOffset = baseOffset;
+        }
+
+        long size() {
+            return written + (this == active ? logBuf.position() : 0);
+        }
+
+        // Loads the sparse index, then scans the records after its last entry to find the end
+        // of the segment; a torn record at the tail (crash mid-write) is truncated away.
+        void recover() throws IOException {
+            long logSize = channel.size();
+            int entries = (int) (index.size() / INDEX_ENTRY);
+            ByteBuffer idx = ByteBuffer.allocate(entries * INDEX_ENTRY);
+            while (idx.hasRemaining() && index.read(idx, idx.position()) > 0) { }
+            idx.flip();
+            for (int i = 0; i < entries; i++) {
+                long offset = idx.getLong();
+                long ts = idx.getLong();
+                int pos = idx.getInt();
+                if (pos >= logSize) break;
+                addIndex(offset, ts, pos);
+            }
+
+            int pos = indexCount > 0 ? idxPositions[indexCount - 1] : 0;
+            endOffset = indexCount > 0 ? idxOffsets[indexCount - 1] : baseOffset;
+            lastTimestamp = indexCount > 0 ? idxTimes[indexCount - 1] : 0;
+            if (logSize > 0) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, logSize);
+                CRC32C check = new CRC32C();
+                while (pos + HEADER <= logSize) {
+                    int len = map.getInt(pos);
+                    if (len < HEADER - 8 || pos + 8L + len > logSize) break;
+                    check.reset();
+                    check.update(map.slice(pos + 8, len));
+                    if ((int) check.getValue() != map.getInt(pos + 4)) break;
+                    endOffset = map.getLong(pos + 8) + 1;
+                    lastTimestamp = map.getLong(pos + 16);
+                    pos += len + 8;
+                }
+            }
+            if (pos < logSize) channel.truncate(pos);
+            index.truncate((long) indexCount * INDEX_ENTRY);
+            channel.position(pos);
+            index.position(index.size());
+            written = pos;
+        }
+
+        void addIndex(long offset, long timestamp, int position) {
+            if (indexCount == idxOffsets.length) {
+                idxOffsets = Arrays.copyOf(idxOffsets, indexCount * 2);
+                idxTimes = Arrays.copyOf(idxTimes, indexCount * 2);
+                idxPositions = Arrays.copyOf(idxPositions, indexCount * 2);
+            }
+            idxOffsets[indexCount] = offset;
+            idxTimes[indexCount] = timestamp;
+            idxPositions[indexCount] = position;
+            indexCount++;
+            lastIndexedPosition = position;
+        }
+
+        int positionBefore(long offset) {
+            int i = Arrays.binarySearch(idxOffsets, 0, indexCount, offset);
+            if (i < 0) i = -i - 2;
+            return i < 0 ? 0 : idxPositions[i];
+        }
+
+        int positionBeforeTime(long millis) {
+            // first entry with ts >= millis, then step back one so equal timestamps are not skipped
+            int lo = 0, hi = indexCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (idxTimes[mid] < millis) lo = mid + 1; else hi = mid;
+            }
+            return lo == 0 ? 0 : idxPositions[lo - 1];
+        }
+
+        void close() throws IOException {
+            channel.close();
+            index.close();
+        }
+
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(logPath);
+            Files.deleteIfExists(idxPath);
+        }
+    }
+}
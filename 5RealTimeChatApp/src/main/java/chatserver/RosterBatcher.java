@@ -0,0 +1,67 @@
+package chatserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Collects USERJOIN/USERLEAVE deltas per room for a short window and sends them as merged frames.
+class RosterBatcher {
+    private final ChatServer server;
+    private final long delayMillis;
+    private final ConcurrentHashMap<String, List<String>> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "roster-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    RosterBatcher(ChatServer server, long delayMillis) {
+        this.server = server;
+        this.delayMillis = delayMillis;
+    }
+
+    void joined(String room, String username) {
+        add(room, "+" + username);
+    }
+
+    void left(String room, String username) {
+        add(room, "-" + username);
+    }
+
+    private void add(String room, String event) {
+        pending.compute(room, (r, events) -> {
+            if (events == null) {
+                events = new ArrayList<>();
+                timer.schedule(() -> flush(r), delayMillis, TimeUnit.MILLISECONDS);
+            }
+            events.add(event);
+            return events;
+        });
+    }
+
+    // Consecutive events of the same kind become one frame, so the join/leave order is preserved.
+    private void flush(String room) {
+        List<String> events = pending.remove(room);
+        if (events == null) return;
+
+        StringBuilder names = new StringBuilder();
+        char kind = 0;
+        for (String event : events) {
+            if (event.charAt(0) != kind && names.length() > 0) {
+                send(room, kind, names);
+                names.setLength(0);
+            }
+            kind = event.charAt(0);
+            if (names.length() > 0) names.append(',');
+            names.append(event, 1, event.length());
+        }
+        if (names.length() > 0) send(room, kind, names);
+    }
+
+    private void send(String room, char kind, StringBuilder names) {
+        server.sendToRoom(room, Frame.of((kind == '+' ? "USERJOIN:" : "USERLEAVE:") + names), null);
+    }
+}
@@ -0,0 +1,124 @@
+package chatserver;
+
+public class ServerConfig {
+
+    // BLOCKING and VIRTUAL both run a ClientHandler per connection, on platform or virtual threads.
+    public enum Transport { BLOCKING, VIRTUAL, NIO }
+
+    // What to do when a client's outbound queue is full.
+    public enum OverflowPolicy { DROP_OLDEST, DROP_NEWEST, DISCONNECT }
+
+    // What to do with a command over its user's or room's rate limit.
+    public enum RateLimitAction { DROP, DELAY, DISCONNECT }
+
+    int port = 5555;
+    int filePort = 6000;
+    Transport transport = Transport.BLOCKING;
+    int ioThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    int outboundQueueSize = 1024;
+    OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    // 0 sends each USERJOIN/USERLEAVE immediately; otherwise deltas within the window are merged
+    long rosterBatchMillis = 0;
+    // file transfers: -1 workers picks virtual threads under --transport=virtual and 16 platform threads otherwise
+    int fileWorkers = -1;
+    int maxTransfers = 64;
+    long fileRatePerConnection = 0;  // bytes/s, 0 = unlimited
+    long fileRateTotal = 0;
+    // room history: off unless --history=true; fsync-ms 0 forces every message to disk
+    boolean history = false;
+    String historyDir = "server_history";
+    long historyFsyncMillis = 20;
+    long historySegmentMb = 64;
+    long historyRetentionHours = 168;  // 0 = keep forever
+    int historyMaxReplay = 1000;
+    String filesDir = "server_files";
+    // cluster mode is on when cluster-port is set; peers is id@host:port,id@host:port. The
+    // cluster port listens on cluster-bind only, and every node needs the same cluster-key-file
+    // (never created by the server: a node refuses to start without it)
+    int clusterPort = 0;
+    String clusterBind = "127.0.0.1";
+    String clusterKeyFile = "cluster.key";
+    String nodeId = "node1";
+    String peers = "";
+    // plaintext metrics on 127.0.0.1; 0 = off (JMX is always on)
+    int statsPort = 0;
+    // client sockets; buffer sizes of 0 keep the OS defaults
+    boolean tcpNoDelay = true;
+    int sendBufferBytes = 0;
+    int receiveBufferBytes = 0;
+    boolean keepAlive = false;
+    int acceptBacklog = 50;
+    // a writer that flushed within the last millisecond waits up to this long for more frames
+    // to put in the same write; 0 writes as soon as anything is queued
+    long writeLingerMicros = 100;
+    // commands/s; 0 = unlimited. MSG, PM and JOIN count against the user, MSG also against the room
+    long userRate = 0;
+    long userBurst = 20;
+    long roomRate = 0;
+    long roomBurst = 100;
+    RateLimitAction rateLimitAction = RateLimitAction.DROP;
+    // deflate level for clients that ask for compression (chat stream and file downloads); 0 = off
+    int deflateLevel = 1;
+    // drain (on SIGTERM): clients are told to reconnect at a random point within the spread and
+    // given a resume token valid for the window; stragglers are cut off at the deadline
+    long drainDeadlineMillis = 10_000;
+    long reconnectSpreadMillis = 5_000;
+    long resumeWindowMillis = 120_000;
+    String sessionKeyFile = "server_session.key";
+
+    // Options are passed as --key=value, e.g. --transport=nio --io-threads=4
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig c = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (key) {
+                case "port" -> c.port = Integer.parseInt(value);
+                case "file-port" -> c.filePort = Integer.parseInt(value);
+                case "transport" -> c.transport = Transport.valueOf(value.toUpperCase());
+                case "io-threads" -> c.ioThreads = Integer.parseInt(value);
+                case "outbound-queue" -> c.outboundQueueSize = Integer.parseInt(value);
+                case "overflow" -> c.overflowPolicy = OverflowPolicy.valueOf(value.toUpperCase().replace('-', '_'));
+                case "roster-batch-ms" -> c.rosterBatchMillis = Long.parseLong(value);
+                case "file-workers" -> c.fileWorkers = Integer.parseInt(value);
+                case "max-transfers" -> c.maxTransfers = Integer.parseInt(value);
+                case "file-rate-per-conn" -> c.fileRatePerConnection = Long.parseLong(value);
+                case "file-rate-total" -> c.fileRateTotal = Long.parseLong(value);
+                case "history" -> c.history = Boolean.parseBoolean(value);
+                case "history-dir" -> c.historyDir = value;
+                case "history-fsync-ms" -> c.historyFsyncMillis = Long.parseLong(value);
+                case "history-segment-mb" -> c.historySegmentMb = Long.parseLong(value);
+                case "history-retention-hours" -> c.historyRetentionHours = Long.parseLong(value);
+                case "history-max-replay" -> c.historyMaxReplay = Integer.parseInt(value);
+                case "files-dir" -> c.filesDir = value;
+                case "cluster-port" -> c.clusterPort = Integer.parseInt(value);
+                case "cluster-bind" -> c.clusterBind = value;
+                case "cluster-key-file" -> c.clusterKeyFile = value;
+                case "node-id" -> c.nodeId = value;
+                case "peers" -> c.peers = value;
+                case "stats-port" -> c.statsPort = Integer.parseInt(value);
+                case "tcp-nodelay" -> c.tcpNoDelay = Boolean.parseBoolean(value);
+                case "so-sndbuf" -> c.sendBufferBytes = Integer.parseInt(value);
+                case "so-rcvbuf" -> c.receiveBufferBytes = Integer.parseInt(value);
+                case "keepalive" -> c.keepAlive = Boolean.parseBoolean(value);
+                case "backlog" -> c.acceptBacklog = Integer.parseInt(value);
+                case "write-linger-us" -> c.writeLingerMicros = Long.parseLong(value);
+                case "rate-user" -> c.userRate = Long.parseLong(value);
+                case "rate-user-burst" -> c.userBurst = Long.parseLong(value);
+                case "rate-room" -> c.roomRate = Long.parseLong(value);
+                case "rate-room-burst" -> c.roomBurst = Long.parseLong(value);
+                case "rate-action" -> c.rateLimitAction = RateLimitAction.valueOf(value.toUpperCase());
+                case "deflate-level" -> c.deflateLevel = Integer.parseInt(value);
+                case "drain-deadline-ms" -> c.drainDeadlineMillis = Long.parseLong(value);
+                case "reconnect-spread-ms" -> c.reconnectSpreadMillis = Long.parseLong(value);
+                case "resume-window-ms" -> c.resumeWindowMillis = Long.parseLong(value);
+                case "session-key-file" -> c.sessionKeyFile = value;
+                default -> throw new IllegalArgumentException("Unknown option: " + key);
+            }
+        }
+        return c;
+    }
+}
@@ -0,0 +1,224 @@
+package chatserver;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters and latency histograms for the hot paths. Everything recorded on a client thread is
+// a LongAdder or a LatencyHistogram, so recording never takes a lock; gauges such as queue
+// depth are only computed when someone reads them.
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final ClientHandler.Command[] COMMANDS = ClientHandler.Command.values();
+
+    private final ChatServer server;
+    private final long startNanos = System.nanoTime();
+
+    final LongAdder connections = new LongAdder();
+    final LongAdder logins = new LongAdder();
+    final LongAdder loginsRejected = new LongAdder();
+    private final LongAdder[] commands = new LongAdder[COMMANDS.length + 1];  // last slot: unknown
+    final LongAdder broadcastRecipients = new LongAdder();
+    final LongAdder writes = new LongAdder();
+    final LongAdder framesWritten = new LongAdder();
+    final LongAdder rateLimited = new LongAdder();
+    private final LongAdder deflateIn = new LongAdder();
+    private final LongAdder deflateOut = new LongAdder();
+    final LatencyHistogram fanOut = new LatencyHistogram();
+    final LatencyHistogram sendLatency = new LatencyHistogram();
+
+    ServerMetrics(ChatServer server) {
+        this.server = server;
+        for (int i = 0; i < commands.length; i++) commands[i] = new LongAdder();
+    }
+
+    void command(ClientHandler.Command cmd) {
+        commands[cmd == null ? COMMANDS.length : cmd.ordinal()].increment();
+    }
+
+    // A batch of frames has just been written to one client's socket.
+    void sent(List<Frame> batch) {
+        long now = System.nanoTime();
+        int n = batch.size();
+        for (int i = 0; i < n; i++) sendLatency.record(now - batch.get(i).createdNanos());
+        writes.increment();
+        framesWritten.add(n);
+    }
+
+    void deflated(int in, int out) {
+        deflateIn.add(in);
+        deflateOut.add(out);
+    }
+
+    void registerMBean(int port) {
+        try {
+            ObjectName name = new ObjectName("chatserver:type=ServerMetrics,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Metrics not registered with JMX: " + e.getMessage());
+        }
+    }
+
+    // Plaintext endpoint on the loopback interface: connect, read the stats, get disconnected.
+    // An HTTP request gets an HTTP response, so curl and Prometheus-style scrapers work too.
+    void startEndpoint(int port) throws IOException {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Thread.ofPlatform().daemon().name("stats").start(() -> {
+            byte[] request = new byte[1024];
+            while (true) {
+                try (SocketChannel ch = listener.accept()) {
+                    byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                    if (isHttp(ch, request)) {
+                        String header = "HTTP/1.0 200 OK\r\nContent-Type: text/plain; version=0.0.4\r\nContent-Length: "
+                                + body.length + "\r\nConnection: close\r\n\r\n";
+                        ch.write(ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)));
+                    }
+                    ch.write(ByteBuffer.wrap(body));
+                } catch (IOException e) {
+                    if (!listener.isOpen()) return;
+                }
+            }
+        });
+    }
+
+    // A bare connection sends nothing, so only wait briefly for a request line.
+    private static boolean isHttp(SocketChannel ch, byte[] request) throws IOException {
+        ch.socket().setSoTimeout(200);
+        int n;
+        try {
+            n = ch.socket().getInputStream().read(request);
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+        return n >= 4 && new String(request, 0, 4, StandardCharsets.US_ASCII).equals("GET ");
+    }
+
+    // Prometheus text format.
+    String render() {
+        StringBuilder out = new StringBuilder(2048);
+        line(out, "chat_uptime_seconds", getUptimeSeconds());
+        line(out, "chat_connections_total", getConnections());
+        line(out, "chat_logins_total", getLogins());
+        line(out, "chat_logins_rejected_total", getLoginsRejected());
+        getCommands().forEach((type, count) -> line(out, "chat_commands_total{type=\"" + type + "\"}", count));
+        line(out, "chat_users_online", getUsersOnline());
+        line(out, "chat_rooms", getRooms());
+        line(out, "chat_outbound_queued", getOutboundQueued());
+        line(out, "chat_outbound_queue_max", getOutboundQueueMax());
+        line(out, "chat_dropped_messages_total", getDroppedMessages());
+        line(out, "chat_broadcasts_total", getBroadcasts());
+        line(out, "chat_broadcast_recipients_total", getBroadcastRecipients());
+        histogram(out, "chat_fanout_micros", getFanOut());
+        histogram(out, "chat_send_latency_micros", getSendLatency());
+        line(out, "chat_writes_total", getWrites());
+        line(out, "chat_frames_written_total", getFramesWritten());
+        line(out, "chat_rate_limited_total", getRateLimited());
+        line(out, "chat_deflate_bytes_in_total", getDeflateBytesIn());
+        line(out, "chat_deflate_bytes_out_total", getDeflateBytesOut());
+        line(out, "chat_file_bytes_in_total", getFileBytesIn());
+        line(out, "chat_file_bytes_out_total", getFileBytesOut());
+        line(out, "chat_file_throughput_bytes_per_second", getFileThroughputBytesPerSecond());
+        line(out, "chat_file_transfers_active", getActiveTransfers());
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, Object value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, LatencyHistogram.Snapshot s) {
+        line(out, name + "{quantile=\"0.5\"}", s.getP50Micros());
+        line(out, name + "{quantile=\"0.9\"}", s.getP90Micros());
+        line(out, name + "{quantile=\"0.99\"}", s.getP99Micros());
+        line(out, name + "{quantile=\"0.999\"}", s.getP999Micros());
+        line(out, name + "_max", s.getMaxMicros());
+        line(out, name + "_sum", s.getMeanMicros() * s.getCount());
+        line(out, name + "_count", s.getCount());
+    }
+
+    @Override
+    public long getUptimeSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+    }
+
+    @Override public long getConnections() { return connections.sum(); }
+
+    @Override public long getLogins() { return logins.sum(); }
+
+    @Override public long getLoginsRejected() { return loginsRejected.sum(); }
+
+    @Override
+    public Map<String, Long> getCommands() {
+        Map<String, Long> byType = new LinkedHashMap<>();
+        for (ClientHandler.Command c : COMMANDS) byType.put(c.name(), commands[c.ordinal()].sum());
+        byType.put("UNKNOWN", commands[COMMANDS.length].sum());
+        return byType;
+    }
+
+    @Override public int getUsersOnline() { return server.handlers().size(); }
+
+    @Override public int getRooms() { return server.roomCount(); }
+
+    @Override
+    public long getOutboundQueued() {
+        long total = 0;
+        for (ClientHandler h : server.handlers()) total += h.getOutboundQueueDepth();
+        return total;
+    }
+
+    @Override
+    public int getOutboundQueueMax() {
+        int max = 0;
+        for (ClientHandler h : server.handlers()) max = Math.max(max, h.getOutboundQueueDepth());
+        return max;
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        long total = 0;
+        for (ClientHandler h : server.handlers()) total += h.getDroppedMessages();
+        return total;
+    }
+
+    @Override public long getBroadcasts() { return fanOut.snapshot().getCount(); }
+
+    @Override public long getBroadcastRecipients() { return broadcastRecipients.sum(); }
+
+    @Override public LatencyHistogram.Snapshot getFanOut() { return fanOut.snapshot(); }
+
+    @Override public LatencyHistogram.Snapshot getSendLatency() { return sendLatency.snapshot(); }
+
+    @Override public long getWrites() { return writes.sum(); }
+
+    @Override public long getFramesWritten() { return framesWritten.sum(); }
+
+    @Override public long getRateLimited() { return rateLimited.sum(); }
+
+    @Override public long getDeflateBytesIn() { return deflateIn.sum(); }
+
+    @Override public long getDeflateBytesOut() { return deflateOut.sum(); }
+
+    @Override public long getFileBytesIn() { return server.fileTransferStats().getBytesIn(); }
+
+    @Override public long getFileBytesOut() { return server.fileTransferStats().getBytesOut(); }
+
+    @Override
+    public double getFileThroughputBytesPerSecond() {
+        return server.fileTransferStats().getThroughputBytesPerSecond();
+    }
+
+    @Override public int getActiveTransfers() { return server.fileTransferStats().getActiveTransfers(); }
+}
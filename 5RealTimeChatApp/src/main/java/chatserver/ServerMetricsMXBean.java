@@ -0,0 +1,61 @@
+package chatserver;
+
+import java.util.Map;
+
+// JMX view of ServerMetrics, registered as chatserver:type=ServerMetrics,port=<chat port>.
+public interface ServerMetricsMXBean {
+
+    long getUptimeSeconds();
+
+    long getConnections();
+
+    long getLogins();
+
+    long getLoginsRejected();
+
+    // Inbound commands by type since startup; UNKNOWN counts lines that matched no command.
+    Map<String, Long> getCommands();
+
+    int getUsersOnline();
+
+    int getRooms();
+
+    // Frames waiting in all logged-in clients' outbound queues, and the deepest single queue.
+    long getOutboundQueued();
+
+    int getOutboundQueueMax();
+
+    long getDroppedMessages();
+
+    long getBroadcasts();
+
+    long getBroadcastRecipients();
+
+    // Time for one room message to be queued to every local member.
+    LatencyHistogram.Snapshot getFanOut();
+
+    // From the frame's creation to the batch holding it being written, per recipient.
+    LatencyHistogram.Snapshot getSendLatency();
+
+    // Gathering writes to client sockets and the frames they carried; frames per write is
+    // how well the write path coalesces.
+    long getWrites();
+
+    long getFramesWritten();
+
+    // Commands over a user or room rate limit: dropped, delayed or disconnected, per --rate-action.
+    long getRateLimited();
+
+    // Chat stream bytes before and after compression, over all clients that negotiated DEFLATE.
+    long getDeflateBytesIn();
+
+    long getDeflateBytesOut();
+
+    long getFileBytesIn();
+
+    long getFileBytesOut();
+
+    double getFileThroughputBytesPerSecond();
+
+    int getActiveTransfers();
+}
@@ -0,0 +1,96 @@
+package chatserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Resume tokens handed out with RECONNECT when the server drains. A token is
+// base64url(name \n room \n expiresMillis) "." base64url(truncated HMAC-SHA256), signed with a
+// key kept on disk, so the restarted process can check it without any state from the old one.
+class SessionTokens {
+    private static final int KEY_BYTES = 32;
+    private static final int MAC_BYTES = 16;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    record Session(String name, String room) {}
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+
+    SessionTokens(Path keyFile) throws IOException {
+        this.key = new SecretKeySpec(loadOrCreateKey(keyFile), "HmacSHA256");
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    // room may be null for a client that was logged in but not in a room
+    String issue(String name, String room, long expiresMillis) {
+        byte[] body = (name + "\n" + (room == null ? "" : room) + "\n" + expiresMillis).getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(body) + "." + ENCODER.encodeToString(sign(body));
+    }
+
+    // null if the token is malformed, forged or past its expiry
+    Session verify(String token, long nowMillis) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) return null;
+        byte[] body, mac;
+        try {
+            body = DECODER.decode(token.substring(0, dot));
+            mac = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(mac, sign(body))) return null;
+
+        String[] fields = new String(body, StandardCharsets.UTF_8).split("\n", -1);
+        if (fields.length != 3 || fields[0].isEmpty()) return null;
+        try {
+            if (Long.parseLong(fields[2]) < nowMillis) return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new Session(fields[0], fields[1].isEmpty() ? null : fields[1]);
+    }
+
+    private byte[] sign(byte[] body) {
+        return Arrays.copyOf(macs.get().doFinal(body), MAC_BYTES);
+    }
+
+    // Created on first start; a restart reuses it, which is what lets old tokens verify.
+    static byte[] loadOrCreateKey(Path keyFile) throws IOException {
+        if (Files.exists(keyFile)) return readKey(keyFile);
+        byte[] fresh = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(fresh);
+        try {
+            Files.write(keyFile, fresh, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return fresh;
+        } catch (FileAlreadyExistsException e) {
+            // another process started at the same moment and won
+            return readKey(keyFile);
+        }
+    }
+
+    static byte[] readKey(Path keyFile) throws IOException {
+        byte[] stored = Files.readAllBytes(keyFile);
+        if (stored.length < KEY_BYTES) throw new IOException("Key file is truncated: " + keyFile);
+        return stored;
+    }
+}
@@ -0,0 +1,108 @@
+package chatserver;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Blocking-socket connection: senders only enqueue, a dedicated writer task does the socket I/O.
+class StreamConnection implements Connection, Runnable {
+    private static final int MAX_BATCH = 64;
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Socket socket;
+    private final SocketChannel out;
+    private final OutboundQueue queue;
+    private final ServerMetrics metrics;
+    private final long lingerNanos;
+    private volatile Frame deflateAfter;
+    private final FrameDeflater deflater;  // writer thread only
+
+    StreamConnection(Socket socket, ServerConfig config, ServerMetrics metrics) {
+        this.socket = socket;
+        this.out = socket.getChannel();
+        this.queue = new OutboundQueue(config.outboundQueueSize, config.overflowPolicy);
+        this.metrics = metrics;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(config.writeLingerMicros);
+        this.deflater = new FrameDeflater(config.deflateLevel);
+    }
+
+    @Override
+    public void send(Frame frame) {
+        if (!queue.offer(frame)) closeNow();
+    }
+
+    @Override
+    public void close() {
+        queue.close();
+    }
+
+    @Override
+    public void abort() {
+        closeNow();
+    }
+
+    @Override
+    public void deflateAfter(Frame last) {
+        deflateAfter = last;
+    }
+
+    @Override
+    public int queueDepth() {
+        return queue.depth();
+    }
+
+    @Override
+    public long droppedMessages() {
+        return queue.dropped();
+    }
+
+    void closeNow() {
+        queue.close();
+        queue.clear();
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+
+    // Writer loop: each batch of queued frames goes out in one gathering write. An idle client
+    // gets its frame straight away; one that was written to within the last millisecond is in a
+    // burst, so the writer lingers briefly and lets more frames join the batch. That is the
+    // coalescing Nagle would do, but bounded by the linger instead of by the peer's delayed ACK.
+    @Override
+    public void run() {
+        List<Frame> batch = new ArrayList<>(MAX_BATCH);
+        ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH];
+        long lastWrite = System.nanoTime() - BURST_NANOS;
+        try {
+            while (queue.take(batch, MAX_BATCH)) {
+                if (lingerNanos > 0 && batch.size() < MAX_BATCH && System.nanoTime() - lastWrite < BURST_NANOS) {
+                    LockSupport.parkNanos(lingerNanos);
+                    queue.poll(batch, MAX_BATCH - batch.size());
+                }
+                int n = deflater.plainFrames(batch, deflateAfter);
+                long remaining = 0;
+                for (int i = 0; i < n; i++) {
+                    buffers[i] = batch.get(i).buffer();
+                    remaining += buffers[i].remaining();
+                }
+                if (n < batch.size()) {
+                    ByteBuffer compressed = deflater.compress(batch, n);
+                    metrics.deflated(deflater.lastInput(), compressed.remaining());
+                    buffers[n++] = compressed;
+                    remaining += compressed.remaining();
+                }
+                while (remaining > 0) remaining -= out.write(buffers, 0, n);
+                lastWrite = System.nanoTime();
+                metrics.sent(batch);
+                batch.clear();
+            }
+        } catch (IOException | InterruptedException ignored) {
+        } finally {
+            closeNow();
+            deflater.end();
+        }
+    }
+}
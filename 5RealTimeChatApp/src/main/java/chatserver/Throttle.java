@@ -0,0 +1,43 @@
+package chatserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Bandwidth limiter: each acquire reserves a slot on a shared timeline and sleeps until it starts.
+class Throttle {
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long bytesPerSecond;
+    private final AtomicLong nextFree = new AtomicLong(System.nanoTime());
+
+    Throttle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    // Returns null for "unlimited", so callers can skip the limiter entirely.
+    static Throttle of(long bytesPerSecond) {
+        return bytesPerSecond > 0 ? new Throttle(bytesPerSecond) : null;
+    }
+
+    // Largest chunk worth reserving at once, so a limited transfer is paced smoothly.
+    int chunkSize() {
+        return (int) Math.max(8192, Math.min(1 << 20, bytesPerSecond / 10));
+    }
+
+    void acquire(long bytes) throws InterruptedException {
+        long cost = bytes * 1_000_000_000L / bytesPerSecond;
+        long start;
+        while (true) {
+            long now = System.nanoTime();
+            long prev = nextFree.get();
+            start = Math.max(prev, now - BURST_NANOS);
+            if (nextFree.compareAndSet(prev, start + cost)) break;
+        }
+        long wait;
+        while ((wait = start - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package chatserver;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// Message timestamps have second resolution, so the formatted string is built at most once a
+// second and shared by every message sent in that second.
+final class Timestamps {
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private record Second(long epochSecond, String text) {}
+
+    private static volatile Second current = new Second(Long.MIN_VALUE, "");
+
+    private Timestamps() {}
+
+    static String now() {
+        long epochSecond = System.currentTimeMillis() / 1000;
+        Second s = current;
+        if (s.epochSecond != epochSecond) {
+            // racing threads may both format the same second; either result is correct
+            String text = LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.systemDefault()).format(TS);
+            current = s = new Second(epochSecond, text);
+        }
+        return s.text;
+    }
+}
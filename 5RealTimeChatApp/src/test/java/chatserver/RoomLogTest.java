@@ -0,0 +1,152 @@
+package chatserver;
+
+import chatproto.Wire;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testAppendThenRead() throws Exception {
+        RoomLog log = open(1 << 20);
+        try {
+            for (int i = 0; i < 100; i++) log.append(1_000 + i, Frame.of("line " + i));
+            assertEquals(100, log.nextOffset());
+            assertEquals(List.of("line 97", "line 98", "line 99"), lines(log.read(3, -1)));
+            assertEquals(List.of("line 98", "line 99"), lines(log.read(100, 1_098)));
+        } finally {
+            log.close();
+            log.unlock();
+        }
+    }
+
+    @Test
+    void testMessagesComeBackTyped() throws Exception {
+        RoomLog log = open(1 << 20);
+        try {
+            log.append(1, Frame.msg("2024-05-01 12:34:56", "room", "alice", "see 10:30: ok"));
+            Frame replayed = log.read(1, -1).get(0);
+            ByteBuffer frame = replayed.binary().buffer();
+            int len = Wire.payloadLength(frame, frame.position());
+            frame.position(frame.position() + Wire.varintSize(len));
+            assertEquals(Wire.MSG, frame.get());
+            assertEquals("2024-05-01 12:34:56", Wire.string(frame));
+            assertEquals("room", Wire.string(frame));
+            assertEquals("alice", Wire.string(frame));
+            assertEquals("see 10:30: ok", Wire.string(frame));
+            assertEquals(List.of("MSG:2024-05-01 12:34:56:room:alice:see 10:30: ok"), lines(List.of(replayed)));
+        } finally {
+            log.close();
+            log.unlock();
+        }
+    }
+
+    @Test
+    void testReadDoesNotCountAsSync() throws Exception {
+        RoomLog log = open(1 << 20);
+        try {
+            log.append(1, Frame.of("hello"));
+            log.read(10, -1);
+            assertTrue(log.needsForce(), "read() wrote the buffer out but nothing forced it");
+            log.force();
+            assertFalse(log.needsForce());
+            log.append(2, Frame.of("again"));
+            log.writeBuffers();
+            assertTrue(log.needsForce());
+        } finally {
+            log.close();
+            log.unlock();
+        }
+    }
+
+    @Test
+    void testReopenAcrossSegments() throws Exception {
+        RoomLog log = open(4096);
+        for (int i = 0; i < 500; i++) log.append(i, Frame.of("message number " + i));
+        log.close();
+        log.unlock();
+
+        assertTrue(logFiles().size() > 1, "expected several segments");
+        RoomLog again = open(4096);
+        try {
+            assertEquals(500, again.nextOffset());
+            assertFalse(again.needsForce());
+            List<String> all = lines(again.read(500, -1));
+            assertEquals(500, all.size());
+            assertEquals("message number 0", all.get(0));
+            assertEquals("message number 499", all.get(499));
+            again.append(500, Frame.of("after reopen"));
+            assertEquals(List.of("message number 499", "after reopen"), lines(again.read(2, -1)));
+        } finally {
+            again.close();
+            again.unlock();
+        }
+    }
+
+    @Test
+    void testTornTailIsCutOff() throws Exception {
+        RoomLog log = open(1 << 20);
+        for (int i = 0; i < 10; i++) log.append(i, Frame.of("line " + i));
+        log.close();
+        log.unlock();
+
+        Path segment = logFiles().get(0);
+        long intact = Files.size(segment);
+        // a record header promising more bytes than made it to disk
+        Files.write(segment, new byte[] {0, 0, 0, 60, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        RoomLog again = open(1 << 20);
+        try {
+            assertEquals(10, again.nextOffset());
+            assertEquals(intact, Files.size(segment));
+            again.append(10, Frame.of("line 10"));
+            again.force();
+        } finally {
+            again.close();
+            again.unlock();
+        }
+        RoomLog third = open(1 << 20);
+        try {
+            assertEquals(List.of("line 9", "line 10"), lines(third.read(2, -1)));
+        } finally {
+            third.close();
+            third.unlock();
+        }
+    }
+
+    private RoomLog open(long segmentBytes) throws Exception {
+        RoomLog log = new RoomLog(dir, segmentBytes);
+        log.lock();
+        return log;
+    }
+
+    private List<Path> logFiles() throws Exception {
+        try (var files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static List<String> lines(List<Frame> frames) {
+        List<String> lines = new ArrayList<>();
+        for (Frame f : frames) {
+            ByteBuffer b = f.buffer();
+            byte[] bytes = new byte[b.remaining()];
+            b.get(bytes);
+            lines.add(new String(bytes, StandardCharsets.UTF_8).trim());
+        }
+        return lines;
+    }
+}